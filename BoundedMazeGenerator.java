@@ -0,0 +1,55 @@
+import java.time.Duration;
+import java.util.function.Supplier;
+
+// Generates mazes for a request path with a hard latency budget. Each call stops after maxAttempts
+// attempts or once timeout has passed, whichever comes first, instead of retrying until a valid map
+// turns up. When the budget runs out the caller gets a map from the fallback pool if it has one ready,
+// and otherwise the last attempt rendered as it is; the outcome of the result says which.
+//
+// The fallback supplier must not block; a MazeStream's poll() is a good pool of pre-generated mazes:
+//
+//   MazeStream pool = new MazeStream(fallbackSeed, 1, 64);
+//   BoundedMazeGenerator mazes = new BoundedMazeGenerator(config, Duration.ofMillis(20), 2_000, pool::poll);
+public class BoundedMazeGenerator {
+
+    private final Duration timeout;
+    private final int maxAttempts;
+    private final Supplier<Maze> fallback;
+    private final ThreadLocal<TetrisGridGenerator> generators;
+
+    // fallback may be null, or return null when it has nothing ready
+    public BoundedMazeGenerator(MazeConfig config, Duration timeout, int maxAttempts, Supplier<Maze> fallback) {
+        this(config, timeout, maxAttempts, fallback, GenerationListener.NONE);
+    }
+
+    public BoundedMazeGenerator(MazeConfig config, Duration timeout, int maxAttempts, Supplier<Maze> fallback,
+                                GenerationListener listener) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        }
+        this.timeout = timeout;
+        this.maxAttempts = maxAttempts;
+        this.fallback = fallback;
+        this.generators = ThreadLocal.withInitial(() -> {
+            TetrisGridGenerator generator = new TetrisGridGenerator(config);
+            generator.setListener(listener);
+            return generator;
+        });
+    }
+
+    public GenerationResult generate(long seed) {
+        long start = System.nanoTime();
+        TetrisGridGenerator generator = generators.get();
+        generator.setSeed(seed);
+        GenerationOutcome outcome = generator.generateTiles(maxAttempts, timeout);
+        int attempts = generator.getLastAttempts();
+        if (outcome != GenerationOutcome.SUCCESS && fallback != null) {
+            Maze maze = fallback.get();
+            if (maze != null) {
+                return new GenerationResult(GenerationOutcome.FALLBACK, maze, attempts, System.nanoTime() - start);
+            }
+        }
+        Maze maze = new Maze(0, seed, generator.getTileString(), generator.getWidth());
+        return new GenerationResult(outcome, maze, attempts, System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,33 @@
+// Receives what happens while TetrisGridGenerator.generate() runs. Every method does nothing by default,
+// and NONE is the listener generators start with, so an unobserved generator pays only an empty call per event.
+// A listener shared by several generators is called from all of their threads.
+public interface GenerationListener {
+    GenerationListener NONE = new GenerationListener() {
+    };
+
+    // generate() started on the maze with the given seed; the events up to the next mazeGenerated() on
+    // this thread belong to it
+    default void mazeStarted(long seed) {
+    }
+
+    // An attempt was thrown away; early is true when gen() abandoned it before the layout was complete
+    default void attemptRejected(RejectReason reason, boolean early) {
+    }
+
+    // A layout that passed isDesirable() but failed createTunnels() was joined and tunnelled again from its
+    // snapshot; success is whether that produced a valid map
+    default void stageRetried(boolean success) {
+    }
+
+    // generate() finished after the given number of attempts
+    default void mazeGenerated(int attempts, boolean success) {
+    }
+
+    // Stages are only timed for listeners that return true here, so nobody else pays for System.nanoTime()
+    default boolean timesStages() {
+        return false;
+    }
+
+    default void stageTimed(GenerationStage stage, long nanos) {
+    }
+}
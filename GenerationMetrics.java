@@ -0,0 +1,186 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Thread-safe GenerationListener that counts rejections per reason, keeps a histogram of attempts per
+// maze and, if asked to, total time per stage. One instance can be shared by every generator of a
+// pool; snapshot() and writePrometheus() export the counters for dashboards.
+public class GenerationMetrics implements GenerationListener {
+    private static final RejectReason[] REASONS = RejectReason.values();
+    private static final GenerationStage[] STAGES = GenerationStage.values();
+
+    // Bucket k of the attempt histogram counts mazes that needed at most 2^k attempts (and more than 2^(k-1))
+    static final int ATTEMPT_BUCKETS = 16;
+
+    private final boolean timeStages;
+    private final LongAdder mazes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder stageRetries = new LongAdder();
+    private final LongAdder successfulStageRetries = new LongAdder();
+    private final LongAdder[] earlyRejections = adders(REASONS.length);
+    private final LongAdder[] rejections = adders(REASONS.length);
+    private final LongAdder[] attemptBuckets = adders(ATTEMPT_BUCKETS + 1);
+    private final LongAdder[] stageNanos = adders(STAGES.length);
+    private final LongAdder[] stageCalls = adders(STAGES.length);
+
+    public GenerationMetrics() {
+        this(false);
+    }
+
+    public GenerationMetrics(boolean timeStages) {
+        this.timeStages = timeStages;
+    }
+
+    private static LongAdder[] adders(int n) {
+        LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    @Override
+    public void attemptRejected(RejectReason reason, boolean early) {
+        (early ? earlyRejections : rejections)[reason.ordinal()].increment();
+    }
+
+    @Override
+    public void mazeGenerated(int attempts, boolean success) {
+        mazes.increment();
+        if (!success) {
+            failures.increment();
+        }
+        this.attempts.add(attempts);
+        attemptBuckets[bucket(attempts)].increment();
+    }
+
+    @Override
+    public void stageRetried(boolean success) {
+        stageRetries.increment();
+        if (success) {
+            successfulStageRetries.increment();
+        }
+    }
+
+    @Override
+    public boolean timesStages() {
+        return timeStages;
+    }
+
+    @Override
+    public void stageTimed(GenerationStage stage, long nanos) {
+        stageNanos[stage.ordinal()].add(nanos);
+        stageCalls[stage.ordinal()].increment();
+    }
+
+    static int bucket(int attempts) {
+        int k = 32 - Integer.numberOfLeadingZeros(Math.max(attempts, 1) - 1);
+        return Math.min(k, ATTEMPT_BUCKETS);
+    }
+
+    public long getMazes() {
+        return mazes.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getAttempts() {
+        return attempts.sum();
+    }
+
+    public long getStageRetries() {
+        return stageRetries.sum();
+    }
+
+    // Stage retries that produced a valid map, each saving the attempts a fresh layout would have taken
+    public long getSuccessfulStageRetries() {
+        return successfulStageRetries.sum();
+    }
+
+    public long getRejections(RejectReason reason, boolean early) {
+        return (early ? earlyRejections : rejections)[reason.ordinal()].sum();
+    }
+
+    public long getStageNanos(GenerationStage stage) {
+        return stageNanos[stage.ordinal()].sum();
+    }
+
+    public long getStageCalls(GenerationStage stage) {
+        return stageCalls[stage.ordinal()].sum();
+    }
+
+    // Mazes per attempt bucket, see bucket()
+    public long[] getAttemptHistogram() {
+        long[] histogram = new long[attemptBuckets.length];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = attemptBuckets[i].sum();
+        }
+        return histogram;
+    }
+
+    // Flat name -> value view of every counter
+    public Map<String, Long> snapshot() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        values.put("mazes", getMazes());
+        values.put("failures", getFailures());
+        values.put("attempts", getAttempts());
+        values.put("stage_retries", getStageRetries());
+        values.put("stage_retries.successful", getSuccessfulStageRetries());
+        for (RejectReason reason : REASONS) {
+            values.put("rejections.early." + reason.name().toLowerCase(Locale.ROOT), getRejections(reason, true));
+            values.put("rejections.late." + reason.name().toLowerCase(Locale.ROOT), getRejections(reason, false));
+        }
+        long[] histogram = getAttemptHistogram();
+        for (int k = 0; k < histogram.length; k++) {
+            values.put("attempts.le." + (k == ATTEMPT_BUCKETS ? "inf" : Long.toString(1L << k)), histogram[k]);
+        }
+        if (timeStages) {
+            for (GenerationStage stage : STAGES) {
+                values.put("stage.nanos." + stage.name().toLowerCase(Locale.ROOT), getStageNanos(stage));
+                values.put("stage.calls." + stage.name().toLowerCase(Locale.ROOT), getStageCalls(stage));
+            }
+        }
+        return values;
+    }
+
+    // Prometheus text exposition format
+    public void writePrometheus(Appendable out) throws IOException {
+        out.append("# TYPE maze_generated_total counter\n");
+        out.append("maze_generated_total ").append(Long.toString(getMazes())).append('\n');
+        out.append("# TYPE maze_failed_total counter\n");
+        out.append("maze_failed_total ").append(Long.toString(getFailures())).append('\n');
+        out.append("# TYPE maze_stage_retries_total counter\n");
+        out.append("maze_stage_retries_total{success=\"true\"} ")
+                .append(Long.toString(getSuccessfulStageRetries())).append('\n');
+        out.append("maze_stage_retries_total{success=\"false\"} ")
+                .append(Long.toString(getStageRetries() - getSuccessfulStageRetries())).append('\n');
+        out.append("# TYPE maze_rejections_total counter\n");
+        for (RejectReason reason : REASONS) {
+            for (boolean early : new boolean[]{true, false}) {
+                out.append("maze_rejections_total{reason=\"").append(reason.name().toLowerCase(Locale.ROOT))
+                        .append("\",early=\"").append(Boolean.toString(early)).append("\"} ")
+                        .append(Long.toString(getRejections(reason, early))).append('\n');
+            }
+        }
+        out.append("# TYPE maze_attempts histogram\n");
+        long[] histogram = getAttemptHistogram();
+        long cumulative = 0;
+        for (int k = 0; k < histogram.length; k++) {
+            cumulative += histogram[k];
+            out.append("maze_attempts_bucket{le=\"").append(k == ATTEMPT_BUCKETS ? "+Inf" : Long.toString(1L << k))
+                    .append("\"} ").append(Long.toString(cumulative)).append('\n');
+        }
+        out.append("maze_attempts_sum ").append(Long.toString(getAttempts())).append('\n');
+        out.append("maze_attempts_count ").append(Long.toString(getMazes())).append('\n');
+        if (timeStages) {
+            out.append("# TYPE maze_stage_seconds_total counter\n");
+            for (GenerationStage stage : STAGES) {
+                out.append("maze_stage_seconds_total{stage=\"").append(stage.name().toLowerCase(Locale.ROOT))
+                        .append("\"} ").append(Double.toString(getStageNanos(stage) / 1e9)).append('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,7 @@
+// How a bounded generation call ended
+public enum GenerationOutcome {
+    SUCCESS,            // a valid map was found within the budget
+    ATTEMPTS_EXHAUSTED, // the attempt budget ran out; the map is the last attempt, rendered as is
+    DEADLINE_EXCEEDED,  // the deadline passed; the map is the last attempt, rendered as is
+    FALLBACK            // the budget ran out and the map was taken from the fallback pool instead
+}
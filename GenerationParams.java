@@ -0,0 +1,155 @@
+import java.util.*;
+
+// The probabilities and limits that shape a maze: how gen() grows its pieces and how often joinWalls()
+// joins a piece to the border. They also decide how many layouts isDesirable() rejects, so they trade
+// the look of the mazes against attempts per map; GenerationParamsSweep measures both. DEFAULT holds the
+// values the generator has always used.
+//
+// Every value has a name for with() and get(), so settings can be given as name=value on a command line.
+public final class GenerationParams {
+
+    public static final GenerationParams DEFAULT = new GenerationParams(0.10, 0.5, 0.75, 0.35, 0.5, 1, 0.25, 0.5);
+
+    // Names of the values, in constructor order
+    public static final List<String> NAMES = List.of(
+            "probStopGrowingAtSize2",
+            "probStopGrowingAtSize3",
+            "probStopGrowingAtSize4",
+            "probTopAndBotSingleCellJoin",
+            "probExtendAtSize3or4",
+            "maxLongPieces",
+            "probJoinTopBottom",
+            "probJoinRight");
+
+    // Probability that a piece stops growing once it has 2, 3 or 4 cells; it never stops at 1 and always
+    // stops at 5
+    public final double probStopGrowingAtSize2;
+    public final double probStopGrowingAtSize3;
+    public final double probStopGrowingAtSize4;
+    // Probability that a piece starting on the top or bottom row stays a single cell joined to the border
+    public final double probTopAndBotSingleCellJoin;
+    // Probability that a closed piece of 3 or 4 cells is given a long leg, for up to maxLongPieces pieces
+    public final double probExtendAtSize3or4;
+    public final int maxLongPieces;
+    // Probability that joinWalls() joins a candidate cell to the top or bottom border, and to the right one
+    public final double probJoinTopBottom;
+    public final double probJoinRight;
+
+    // Stop probability indexed by piece size, as gen() reads it
+    final double[] probStopGrowingAtSize;
+
+    public GenerationParams(double probStopGrowingAtSize2, double probStopGrowingAtSize3,
+                            double probStopGrowingAtSize4, double probTopAndBotSingleCellJoin,
+                            double probExtendAtSize3or4, int maxLongPieces, double probJoinTopBottom,
+                            double probJoinRight) {
+        this.probStopGrowingAtSize2 = probability("probStopGrowingAtSize2", probStopGrowingAtSize2);
+        this.probStopGrowingAtSize3 = probability("probStopGrowingAtSize3", probStopGrowingAtSize3);
+        this.probStopGrowingAtSize4 = probability("probStopGrowingAtSize4", probStopGrowingAtSize4);
+        this.probTopAndBotSingleCellJoin = probability("probTopAndBotSingleCellJoin", probTopAndBotSingleCellJoin);
+        this.probExtendAtSize3or4 = probability("probExtendAtSize3or4", probExtendAtSize3or4);
+        if (maxLongPieces < 0) {
+            throw new IllegalArgumentException("maxLongPieces must not be negative: " + maxLongPieces);
+        }
+        this.maxLongPieces = maxLongPieces;
+        this.probJoinTopBottom = probability("probJoinTopBottom", probJoinTopBottom);
+        this.probJoinRight = probability("probJoinRight", probJoinRight);
+        probStopGrowingAtSize = new double[] {0, 0, probStopGrowingAtSize2, probStopGrowingAtSize3,
+                probStopGrowingAtSize4, 1};
+    }
+
+    private static double probability(String name, double p) {
+        if (!(p >= 0 && p <= 1)) {
+            throw new IllegalArgumentException(name + " must be between 0 and 1: " + p);
+        }
+        return p;
+    }
+
+    public double get(String name) {
+        switch (name) {
+            case "probStopGrowingAtSize2": return probStopGrowingAtSize2;
+            case "probStopGrowingAtSize3": return probStopGrowingAtSize3;
+            case "probStopGrowingAtSize4": return probStopGrowingAtSize4;
+            case "probTopAndBotSingleCellJoin": return probTopAndBotSingleCellJoin;
+            case "probExtendAtSize3or4": return probExtendAtSize3or4;
+            case "maxLongPieces": return maxLongPieces;
+            case "probJoinTopBottom": return probJoinTopBottom;
+            case "probJoinRight": return probJoinRight;
+            default: throw new IllegalArgumentException("unknown parameter: " + name);
+        }
+    }
+
+    // A copy with one value changed; maxLongPieces must be a whole number
+    public GenerationParams with(String name, double value) {
+        double[] values = new double[NAMES.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = get(NAMES.get(i));
+        }
+        int i = NAMES.indexOf(name);
+        if (i < 0) {
+            throw new IllegalArgumentException("unknown parameter: " + name);
+        }
+        if (name.equals("maxLongPieces") && value != Math.rint(value)) {
+            throw new IllegalArgumentException("maxLongPieces must be a whole number: " + value);
+        }
+        values[i] = value;
+        return new GenerationParams(values[0], values[1], values[2], values[3], values[4], (int) values[5],
+                values[6], values[7]);
+    }
+
+    // Parses "name=value,name=value,...", starting from DEFAULT
+    public static GenerationParams parse(String settings) {
+        GenerationParams params = DEFAULT;
+        for (String setting : settings.split(",")) {
+            int eq = setting.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("expected name=value: " + setting);
+            }
+            params = params.with(setting.substring(0, eq).trim(), Double.parseDouble(setting.substring(eq + 1).trim()));
+        }
+        return params;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof GenerationParams)) {
+            return false;
+        }
+        GenerationParams other = (GenerationParams) o;
+        for (String name : NAMES) {
+            if (Double.compare(get(name), other.get(name)) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (String name : NAMES) {
+            hash = hash * 31 + Double.hashCode(get(name));
+        }
+        return hash;
+    }
+
+    // The values that differ from DEFAULT, in parse() form, or "defaults"
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (String name : NAMES) {
+            double value = get(name);
+            if (Double.compare(value, DEFAULT.get(name)) != 0) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(name).append('=');
+                if (name.equals("maxLongPieces")) {
+                    sb.append((int) value);
+                } else {
+                    sb.append(value);
+                }
+            }
+        }
+        return sb.length() == 0 ? "defaults" : sb.toString();
+    }
+}
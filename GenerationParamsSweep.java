@@ -0,0 +1,255 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Sweeps GenerationParams settings in parallel, one setting per task with its own generator, and
+// reports for each what it costs and how far its mazes drift from those of the defaults:
+//
+//   attempts/map  attempts per valid map
+//   maps/s        valid maps per second of the task's CPU time, so the figure doesn't depend on how many
+//                 tasks shared the machine
+//   pieces, path, junctions, tunnels
+//                 change in the mean number of pieces, path tiles, path tiles with three or more path
+//                 neighbours and tunnel rows per map, in standard deviations of the defaults' maps
+//   sizes         total variation distance between the piece size distributions (0 = same, 1 = disjoint)
+//
+// Every setting generates the same seeds. The "defaults, other seeds" row runs the defaults on
+// different ones, so its drift is sampling noise: a setting with no more drift than that looks like
+// the defaults, as far as these features can tell.
+//
+// Each name=v1,v2,... argument sweeps one value, and several are crossed with each other. Without any,
+// every value is varied on its own around the defaults.
+//
+// Usage: java GenerationParamsSweep [mazes] [ROWSxCOLS] [parallelism] [name=v1,v2,...]...
+// e.g.   java GenerationParamsSweep 5000 9x5 8 probExtendAtSize3or4=0,0.5,1 maxLongPieces=0,1,2
+public class GenerationParamsSweep {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    // Values tried for each parameter when the sweep isn't given
+    private static final Map<String, double[]> DEFAULT_SWEEP = new LinkedHashMap<>();
+
+    static {
+        DEFAULT_SWEEP.put("probStopGrowingAtSize2", new double[] {0, 0.05, 0.2});
+        DEFAULT_SWEEP.put("probStopGrowingAtSize3", new double[] {0.3, 0.7});
+        DEFAULT_SWEEP.put("probStopGrowingAtSize4", new double[] {0.5, 1});
+        DEFAULT_SWEEP.put("probTopAndBotSingleCellJoin", new double[] {0.2, 0.5});
+        DEFAULT_SWEEP.put("probExtendAtSize3or4", new double[] {0, 0.25, 0.75, 1});
+        DEFAULT_SWEEP.put("maxLongPieces", new double[] {0, 2});
+        DEFAULT_SWEEP.put("probJoinTopBottom", new double[] {0.1, 0.4});
+        DEFAULT_SWEEP.put("probJoinRight", new double[] {0.25, 0.75});
+    }
+
+    // Largest piece size counted on its own; bigger pieces share the last bucket
+    private static final int MAX_PIECE_SIZE = 6;
+
+    private static final String[] SCALARS = {"pieces", "path", "junctions", "tunnels"};
+
+    // Features of the valid maps of one setting
+    static final class Features {
+        long maps;
+        final double[] sum = new double[SCALARS.length];
+        final double[] sumSquares = new double[SCALARS.length];
+        final long[] pieceSizes = new long[MAX_PIECE_SIZE + 1];
+
+        void add(TetrisGridGenerator generator) {
+            int cells = generator.getConfig().getCells();
+            int[] sizes = new int[cells];
+            int pieces = 0;
+            for (int i = 0; i < cells; i++) {
+                int g = generator.findGroup(i);
+                if (g != -1 && sizes[g]++ == 0) {
+                    pieces++;
+                }
+            }
+            for (int size : sizes) {
+                if (size > 0) {
+                    pieceSizes[Math.min(size, MAX_PIECE_SIZE)]++;
+                }
+            }
+
+            int width = generator.getWidth();
+            int height = generator.getHeight();
+            int path = 0;
+            int junctions = 0;
+            int tunnels = 0;
+            for (int y = 0; y < height; y++) {
+                if (isPath(generator, 0, y, width, height)) {
+                    tunnels++;
+                }
+                for (int x = 0; x < width; x++) {
+                    if (isPath(generator, x, y, width, height)) {
+                        path++;
+                        int neighbours = (isPath(generator, x - 1, y, width, height) ? 1 : 0)
+                                + (isPath(generator, x + 1, y, width, height) ? 1 : 0)
+                                + (isPath(generator, x, y - 1, width, height) ? 1 : 0)
+                                + (isPath(generator, x, y + 1, width, height) ? 1 : 0);
+                        if (neighbours >= 3) {
+                            junctions++;
+                        }
+                    }
+                }
+            }
+
+            double[] values = {pieces, path, junctions, tunnels};
+            for (int k = 0; k < values.length; k++) {
+                sum[k] += values[k];
+                sumSquares[k] += values[k] * values[k];
+            }
+            maps++;
+        }
+
+        private static boolean isPath(TetrisGridGenerator generator, int x, int y, int width, int height) {
+            if (x < 0 || x >= width || y < 0 || y >= height) {
+                return false;
+            }
+            char tile = generator.getMapTile(x + y * width);
+            return tile == '.' || tile == 'o' || tile == ' ';
+        }
+
+        double mean(int k) {
+            return maps == 0 ? 0 : sum[k] / maps;
+        }
+
+        double deviation(int k) {
+            double mean = mean(k);
+            return maps == 0 ? 0 : Math.sqrt(Math.max(0, sumSquares[k] / maps - mean * mean));
+        }
+
+        // Change in mean of feature k against the baseline, in the baseline's standard deviations
+        double drift(int k, Features baseline) {
+            double deviation = baseline.deviation(k);
+            double shift = mean(k) - baseline.mean(k);
+            return deviation == 0 ? (shift == 0 ? 0 : Double.POSITIVE_INFINITY) : shift / deviation;
+        }
+
+        double pieceSizeDistance(Features baseline) {
+            long total = 0;
+            long baselineTotal = 0;
+            for (int s = 0; s <= MAX_PIECE_SIZE; s++) {
+                total += pieceSizes[s];
+                baselineTotal += baseline.pieceSizes[s];
+            }
+            double distance = 0;
+            for (int s = 0; s <= MAX_PIECE_SIZE; s++) {
+                distance += Math.abs((double) pieceSizes[s] / Math.max(total, 1)
+                        - (double) baseline.pieceSizes[s] / Math.max(baselineTotal, 1));
+            }
+            return distance / 2;
+        }
+    }
+
+    // What one setting cost and produced
+    static final class Result {
+        final String label;
+        final GenerationParams params;
+        final Features features = new Features();
+        long attempts;
+        long failures;
+        long cpuNanos;
+
+        Result(String label, GenerationParams params) {
+            this.label = label;
+            this.params = params;
+        }
+    }
+
+    static Result run(String label, GenerationParams params, MazeConfig config, int mazes, long seed) {
+        Result result = new Result(label, params);
+        TetrisGridGenerator generator = new TetrisGridGenerator(config, 0);
+        generator.setParams(params);
+        for (int i = 0; i < mazes; i++) {
+            generator.setSeed(MazeRandom.derive(seed, i));
+            // only generation is timed, not taking the features
+            long start = THREADS.getCurrentThreadCpuTime();
+            generator.generateTiles();
+            result.cpuNanos += THREADS.getCurrentThreadCpuTime() - start;
+            result.attempts += generator.getLastAttempts();
+            if (generator.isLastSuccessful()) {
+                result.features.add(generator);
+            } else {
+                result.failures++;
+            }
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int mazes = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        MazeConfig config = args.length > 1 ? MazeConfig.parse(args[1]) : MazeConfig.DEFAULT;
+        int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        List<GenerationParams> settings = new ArrayList<>();
+        if (args.length > 3) {
+            settings.add(GenerationParams.DEFAULT);
+            for (int a = 3; a < args.length; a++) {
+                int eq = args[a].indexOf('=');
+                if (eq < 0) {
+                    throw new IllegalArgumentException("expected name=v1,v2,...: " + args[a]);
+                }
+                String name = args[a].substring(0, eq);
+                List<GenerationParams> crossed = new ArrayList<>();
+                for (GenerationParams params : settings) {
+                    for (String value : args[a].substring(eq + 1).split(",")) {
+                        crossed.add(params.with(name, Double.parseDouble(value)));
+                    }
+                }
+                settings = crossed;
+            }
+            settings.remove(GenerationParams.DEFAULT);
+        } else {
+            for (Map.Entry<String, double[]> e : DEFAULT_SWEEP.entrySet()) {
+                for (double value : e.getValue()) {
+                    settings.add(GenerationParams.DEFAULT.with(e.getKey(), value));
+                }
+            }
+        }
+
+        List<Callable<Result>> tasks = new ArrayList<>();
+        tasks.add(() -> run("defaults", GenerationParams.DEFAULT, config, mazes, 0));
+        tasks.add(() -> run("defaults, other seeds", GenerationParams.DEFAULT, config, mazes, 1));
+        for (GenerationParams params : settings) {
+            tasks.add(() -> run(params.toString(), params, config, mazes, 0));
+        }
+
+        // compile the generator before anything is timed, or the first settings would look slowest
+        run("warm-up", GenerationParams.DEFAULT, config, mazes, 2);
+
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        List<Result> results = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            for (Future<Result> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        System.out.printf("%d settings x %d mazes, %s, %d threads, %.1f s%n", results.size(), mazes, config,
+                parallelism, (System.nanoTime() - start) / 1e9);
+        int labelWidth = 30;
+        for (Result result : results) {
+            labelWidth = Math.max(labelWidth, result.label.length());
+        }
+        System.out.printf("%-" + labelWidth + "s %12s %8s %8s %8s %8s %8s %8s %6s%n", "setting", "attempts/map",
+                "maps/s", "pieces", "path", "junction", "tunnels", "sizes", "failed");
+        Features baseline = results.get(0).features;
+        for (Result result : results) {
+            Features features = result.features;
+            long maps = features.maps;
+            System.out.printf("%-" + labelWidth + "s %12.2f %8.0f", result.label,
+                    (double) result.attempts / Math.max(maps, 1), maps / (result.cpuNanos / 1e9));
+            for (int k = 0; k < SCALARS.length; k++) {
+                System.out.printf(" %+8.3f", features.drift(k, baseline));
+            }
+            System.out.printf(" %8.3f %6d%n", features.pieceSizeDistance(baseline), result.failures);
+        }
+        System.out.printf("%-" + labelWidth + "s %12s %8s", "defaults, mean (sd)", "", "");
+        for (int k = 0; k < SCALARS.length; k++) {
+            System.out.printf(" %8s", String.format("%.1f(%.1f)", baseline.mean(k), baseline.deviation(k)));
+        }
+        System.out.println();
+    }
+}
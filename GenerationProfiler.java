@@ -0,0 +1,296 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// GenerationListener for finding where the tail latency of generate() comes from. For every run it records
+// which constraint rejected each attempt and how long each stage took, and keeps percentile histograms of
+// attempts per maze, time per maze, time per stage call and rejections per maze for each constraint, plus
+// the slowest runs with their breakdown. report() prints it all as a text report.
+//
+// Stages are always timed, so this costs two System.nanoTime() calls per stage; use GenerationMetrics for
+// always-on counters. Like every listener it can be shared by the generators of a pool.
+//
+// Usage: java GenerationProfiler [mazes] [threads] [ROWSxCOLS] [seed]
+public class GenerationProfiler implements GenerationListener {
+    private static final RejectReason[] REASONS = RejectReason.values();
+    private static final GenerationStage[] STAGES = GenerationStage.values();
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final int slowestKept;
+
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder stageRetries = new LongAdder();
+    private final LongAdder successfulStageRetries = new LongAdder();
+    private final PercentileHistogram attemptsPerMaze = new PercentileHistogram();
+    private final PercentileHistogram nanosPerMaze = new PercentileHistogram();
+    private final PercentileHistogram[] stageNanos = histograms(STAGES.length);
+    private final PercentileHistogram[] rejectionsPerMaze = histograms(REASONS.length);
+    private final LongAdder[] earlyRejections = adders(REASONS.length);
+    private final LongAdder[] lateRejections = adders(REASONS.length);
+
+    private final PriorityQueue<Run> slowest; // guarded by itself, fastest of the kept runs first
+
+    // The run in progress on each thread; generate() keeps a maze on one thread from start to end
+    private final ThreadLocal<Run> current = ThreadLocal.withInitial(Run::new);
+
+    // What happened during one generate() call
+    public static final class Run {
+        long seed;
+        int attempts;
+        boolean success;
+        long nanos;
+        final int[] early = new int[REASONS.length];
+        final int[] late = new int[REASONS.length];
+
+        void start(long seed) {
+            this.seed = seed;
+            attempts = 0;
+            nanos = 0;
+            Arrays.fill(early, 0);
+            Arrays.fill(late, 0);
+        }
+
+        Run copy() {
+            Run run = new Run();
+            run.seed = seed;
+            run.attempts = attempts;
+            run.success = success;
+            run.nanos = nanos;
+            System.arraycopy(early, 0, run.early, 0, early.length);
+            System.arraycopy(late, 0, run.late, 0, late.length);
+            return run;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public int getRejections(RejectReason reason, boolean early) {
+            return (early ? this.early : late)[reason.ordinal()];
+        }
+    }
+
+    public GenerationProfiler() {
+        this(10);
+    }
+
+    public GenerationProfiler(int slowestKept) {
+        this.slowestKept = slowestKept;
+        this.slowest = new PriorityQueue<>(Math.max(1, slowestKept + 1), Comparator.comparingLong(run -> run.nanos));
+    }
+
+    private static PercentileHistogram[] histograms(int n) {
+        PercentileHistogram[] histograms = new PercentileHistogram[n];
+        for (int i = 0; i < n; i++) {
+            histograms[i] = new PercentileHistogram();
+        }
+        return histograms;
+    }
+
+    private static LongAdder[] adders(int n) {
+        LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    @Override
+    public void mazeStarted(long seed) {
+        current.get().start(seed);
+    }
+
+    @Override
+    public void attemptRejected(RejectReason reason, boolean early) {
+        Run run = current.get();
+        (early ? run.early : run.late)[reason.ordinal()]++;
+        (early ? earlyRejections : lateRejections)[reason.ordinal()].increment();
+    }
+
+    @Override
+    public void stageRetried(boolean success) {
+        stageRetries.increment();
+        if (success) {
+            successfulStageRetries.increment();
+        }
+    }
+
+    @Override
+    public boolean timesStages() {
+        return true;
+    }
+
+    @Override
+    public void stageTimed(GenerationStage stage, long nanos) {
+        current.get().nanos += nanos;
+        stageNanos[stage.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void mazeGenerated(int attempts, boolean success) {
+        Run run = current.get();
+        run.attempts = attempts;
+        run.success = success;
+        if (!success) {
+            failures.increment();
+        }
+        attemptsPerMaze.record(attempts);
+        nanosPerMaze.record(run.nanos);
+        for (RejectReason reason : REASONS) {
+            rejectionsPerMaze[reason.ordinal()].record(run.early[reason.ordinal()] + run.late[reason.ordinal()]);
+        }
+        if (slowestKept > 0) {
+            synchronized (slowest) {
+                if (slowest.size() < slowestKept || run.nanos > slowest.peek().nanos) {
+                    slowest.add(run.copy());
+                    if (slowest.size() > slowestKept) {
+                        slowest.poll();
+                    }
+                }
+            }
+        }
+    }
+
+    public long getMazes() {
+        return attemptsPerMaze.getCount();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getStageRetries() {
+        return stageRetries.sum();
+    }
+
+    public long getSuccessfulStageRetries() {
+        return successfulStageRetries.sum();
+    }
+
+    public PercentileHistogram getAttemptsPerMaze() {
+        return attemptsPerMaze;
+    }
+
+    public PercentileHistogram getNanosPerMaze() {
+        return nanosPerMaze;
+    }
+
+    public PercentileHistogram getStageNanos(GenerationStage stage) {
+        return stageNanos[stage.ordinal()];
+    }
+
+    public PercentileHistogram getRejectionsPerMaze(RejectReason reason) {
+        return rejectionsPerMaze[reason.ordinal()];
+    }
+
+    public long getRejections(RejectReason reason, boolean early) {
+        return (early ? earlyRejections : lateRejections)[reason.ordinal()].sum();
+    }
+
+    // Slowest runs so far, slowest first
+    public List<Run> getSlowestRuns() {
+        List<Run> runs;
+        synchronized (slowest) {
+            runs = new ArrayList<>(slowest);
+        }
+        runs.sort(Comparator.comparingLong((Run run) -> run.nanos).reversed());
+        return runs;
+    }
+
+    public void report(Appendable out) throws IOException {
+        long attempts = attemptsPerMaze.getSum();
+        out.append(String.format("%d mazes, %d failed, %d attempts, %d stage retries (%d successful)%n%n",
+                getMazes(), getFailures(), attempts, stageRetries.sum(), successfulStageRetries.sum()));
+
+        out.append(String.format("%-30s %10s", "per maze", "mean"));
+        for (double p : PERCENTILES) {
+            out.append(String.format(" %10s", "p" + format(p)));
+        }
+        out.append(String.format(" %10s%n", "max"));
+        row(out, "attempts", attemptsPerMaze, 1);
+        row(out, "time (us)", nanosPerMaze, 1e3);
+        for (RejectReason reason : REASONS) {
+            row(out, lower(reason) + " rejections", rejectionsPerMaze[reason.ordinal()], 1);
+        }
+
+        out.append(String.format("%n%-30s %10s %10s %7s", "stage (us per call)", "calls", "total ms", "share"));
+        for (double p : PERCENTILES) {
+            out.append(String.format(" %10s", "p" + format(p)));
+        }
+        out.append(String.format(" %10s%n", "max"));
+        long totalNanos = nanosPerMaze.getSum();
+        for (GenerationStage stage : STAGES) {
+            PercentileHistogram h = stageNanos[stage.ordinal()];
+            out.append(String.format("%-30s %10d %10.1f %6.1f%%", lower(stage), h.getCount(), h.getSum() / 1e6,
+                    totalNanos == 0 ? 0 : 100.0 * h.getSum() / totalNanos));
+            for (double p : PERCENTILES) {
+                out.append(String.format(" %10.2f", h.getValueAtPercentile(p) / 1e3));
+            }
+            out.append(String.format(" %10.2f%n", h.getMax() / 1e3));
+        }
+
+        out.append(String.format("%n%-30s %10s %10s %10s%n", "rejections", "early", "late", "% attempts"));
+        for (RejectReason reason : REASONS) {
+            long early = getRejections(reason, true);
+            long late = getRejections(reason, false);
+            out.append(String.format("%-30s %10d %10d %9.1f%%%n", lower(reason), early, late,
+                    attempts == 0 ? 0 : 100.0 * (early + late) / attempts));
+        }
+
+        List<Run> runs = getSlowestRuns();
+        if (!runs.isEmpty()) {
+            out.append(String.format("%nslowest runs%n"));
+            for (Run run : runs) {
+                out.append(String.format("  seed %016x %8.2f ms %6d attempts%s", run.seed, run.nanos / 1e6,
+                        run.attempts, run.success ? "" : " (failed)"));
+                for (RejectReason reason : REASONS) {
+                    int n = run.early[reason.ordinal()] + run.late[reason.ordinal()];
+                    if (n > 0) {
+                        out.append(' ').append(lower(reason)).append('=').append(Integer.toString(n));
+                    }
+                }
+                out.append(System.lineSeparator());
+            }
+        }
+    }
+
+    private static void row(Appendable out, String name, PercentileHistogram h, double scale) throws IOException {
+        out.append(String.format("%-30s %10.2f", name, h.getMean() / scale));
+        for (double p : PERCENTILES) {
+            out.append(String.format(" %10.2f", h.getValueAtPercentile(p) / scale));
+        }
+        out.append(String.format(" %10.2f%n", h.getMax() / scale));
+    }
+
+    private static String format(double p) {
+        return p == Math.rint(p) ? Long.toString((long) p) : Double.toString(p);
+    }
+
+    private static String lower(Enum<?> e) {
+        return e.name().toLowerCase(Locale.ROOT);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        MazeConfig config = args.length > 2 ? MazeConfig.parse(args[2]) : MazeConfig.DEFAULT;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 0;
+
+        GenerationProfiler profiler = new GenerationProfiler();
+        MazeBatchGenerator.generate(config, count, seed, threads, profiler, maze -> { });
+        profiler.report(System.out);
+    }
+}
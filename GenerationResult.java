@@ -0,0 +1,24 @@
+// What a bounded generation call returned: the map, how the call ended and what it cost
+public class GenerationResult {
+    public final GenerationOutcome outcome;
+    public final Maze maze;
+    public final int attempts;
+    public final long nanos;
+
+    public GenerationResult(GenerationOutcome outcome, Maze maze, int attempts, long nanos) {
+        this.outcome = outcome;
+        this.maze = maze;
+        this.attempts = attempts;
+        this.nanos = nanos;
+    }
+
+    // Whether maze is a valid map generated from the requested seed
+    public boolean isSuccess() {
+        return outcome == GenerationOutcome.SUCCESS;
+    }
+
+    @Override
+    public String toString() {
+        return outcome + " after " + attempts + " attempts in " + nanos / 1000 + " us";
+    }
+}
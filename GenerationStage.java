@@ -0,0 +1,10 @@
+// The steps every generation attempt goes through, in order
+public enum GenerationStage {
+    RESET,
+    GEN,
+    IS_DESIRABLE,
+    SET_UP_SCALE_COORDS,
+    JOIN_WALLS,
+    CREATE_TUNNELS,
+    GET_TILES
+}
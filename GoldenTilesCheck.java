@@ -0,0 +1,95 @@
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+// Regression check for the rendered maps: generates fixed seeds and compares their tiles with hashes
+// recorded when the output was known to be right, and exits with status 1 on any difference. Run it
+// after changing the pipeline or the renderer. A change that is meant to alter the mazes records new
+// hashes with "record" and says why in its commit.
+//
+// A digest covers the first seeds of a size; single seeds pin cases that once went wrong. The sizes
+// include the smallest grid, odd ones and one whose tile rows span several longs, where the raster
+// and the word-parallel wall pass have the most edges to get wrong. Seeds are MazeRandom.derive(0,
+// index), as in the benchmarks. Every maze gets at most MAX_ATTEMPTS attempts so wide grids, which
+// often run out, stay quick; a maze that runs out is rendered from its last attempt and checked all
+// the same.
+//
+// Usage: java GoldenTilesCheck [record]
+public class GoldenTilesCheck {
+
+    static final int MAX_ATTEMPTS = 1_000;
+
+    // Size, number of mazes and digest of its first mazes
+    private static final Object[][] DIGESTS = {
+            {"9x5", 2000, 0xEC4C00038DFDFACCL},
+            {"7x3", 1000, 0x4C12F1A26FF73B13L},
+            {"19x11", 200, 0x51D00BF34A498F52L},
+            {"9x21", 100, 0xAE61A88D2ED50456L},
+            {"9x64", 10, 0x06DB8B01B351EE2AL},
+    };
+
+    // Size, seed index and CRC-32 of its tiles
+    private static final Object[][] SEEDS = {
+            // a square joined in isDesirable() next to a long leg; merging whole pieces closed a corridor
+            {"9x5", 8351, 2041218465},
+            {"9x5", 0, 1347020732},
+            {"19x11", 7, 302039298},
+    };
+
+    static TetrisGridGenerator generator(String size) {
+        return new TetrisGridGenerator(MazeConfig.parse(size), 0);
+    }
+
+    static int tileHash(TetrisGridGenerator generator, int index) {
+        generator.setSeed(MazeRandom.derive(0, index));
+        generator.generateTiles(MAX_ATTEMPTS, null);
+        // not String.hashCode(): the blank rows every map ends with leave its low bits all zero
+        CRC32 crc = new CRC32();
+        crc.update(generator.getTileString().getBytes(StandardCharsets.US_ASCII));
+        return (int) crc.getValue();
+    }
+
+    static long digest(String size, int mazes) {
+        TetrisGridGenerator generator = generator(size);
+        long digest = 0;
+        for (int i = 0; i < mazes; i++) {
+            digest = digest * 31 + tileHash(generator, i);
+        }
+        return digest;
+    }
+
+    public static void main(String[] args) {
+        boolean record = args.length > 0 && args[0].equals("record");
+        int failures = 0;
+        for (Object[] row : DIGESTS) {
+            String size = (String) row[0];
+            int mazes = (int) row[1];
+            long actual = digest(size, mazes);
+            if (record) {
+                System.out.printf("            {\"%s\", %d, 0x%016XL},%n", size, mazes, actual);
+            } else if (actual != (long) row[2]) {
+                System.out.printf("FAIL %s first %d mazes: digest %016X, expected %016X%n", size, mazes,
+                        actual, (long) row[2]);
+                failures++;
+            }
+        }
+        for (Object[] row : SEEDS) {
+            String size = (String) row[0];
+            int index = (int) row[1];
+            int actual = tileHash(generator(size), index);
+            if (record) {
+                System.out.printf("            {\"%s\", %d, %d},%n", size, index, actual);
+            } else if (actual != (int) row[2]) {
+                System.out.printf("FAIL %s seed index %d: tiles hash %d, expected %d%n", size, index, actual,
+                        (int) row[2]);
+                failures++;
+            }
+        }
+        if (!record) {
+            System.out.println(failures == 0 ? "all " + (DIGESTS.length + SEEDS.length) + " checks passed"
+                    : failures + " checks failed");
+            if (failures > 0) {
+                System.exit(1);
+            }
+        }
+    }
+}
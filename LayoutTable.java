@@ -0,0 +1,389 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Piece layouts that gen() grows and isDesirable() accepts, each weighted by how often it turned up, so
+// a generator given the table with setLayoutTable() draws an accepted layout in constant time instead
+// of rejecting dozens of grown ones first.
+//
+// The layouts can't be listed directly: gen() is a random process, and isDesirable() makes random
+// choices of its own. sample() instead runs attempts on every core and counts each distinct accepted
+// layout, so a layout's weight over the total estimates its probability under the current growth
+// rules. The layouts that turned up once estimate how much of that probability the table hasn't seen
+// yet (the Good-Turing estimate, getMissingMass()); sampling longer drives it towards 0. A draw picks an
+// entry with an alias table, in O(1) whatever the number of layouts.
+//
+// The growth rules are those of the GenerationParams the table was sampled with, which it keeps: a
+// generator only takes a table whose params equal its own.
+//
+// Sampling works in chunks of CHUNK attempts with seeds derived from the table seed, so a table is the
+// same whatever parallelism built it. Layouts take TetrisGridGenerator.getLayoutSize() bytes, which
+// limits tables to grids of up to TetrisGridGenerator.MAX_LAYOUT_CELLS cells.
+//
+// File layout: a 96 byte header, then count entries from the heaviest, all big-endian.
+//
+//   offset  size
+//        0     8   magic "MZLAYOUT"
+//        8     4   version
+//       12     4   rows
+//       16     4   cols
+//       20     4   count
+//       24     8   attempts sampled
+//       32    64   params, one double per GenerationParams.NAMES entry in that order
+//
+//   entry: weight (4), layout (layout size)
+//
+// Usage: java LayoutTable [attempts] [ROWSxCOLS] [parallelism] [file]
+public class LayoutTable {
+
+    public static final int HEADER_SIZE = 96;
+    public static final int VERSION = 2;
+
+    // Attempts per sampling chunk
+    static final int CHUNK = 1 << 14;
+
+    private static final long MAGIC = 0x4D5A4C41594F5554L; // "MZLAYOUT"
+
+    private final MazeConfig config;
+    private final GenerationParams params;
+    private final int layoutSize;
+    private final byte[] layouts; // count layouts of layoutSize bytes, heaviest first
+    private final int[] weights;
+    private final long attempts;
+    private final long samples;   // sum of the weights
+
+    // Alias table: draw entry i uniformly, then keep it with probability keep[i] or take alias[i]
+    private final double[] keep;
+    private final int[] alias;
+
+    LayoutTable(MazeConfig config, GenerationParams params, byte[] layouts, int[] weights, long attempts) {
+        if (weights.length == 0) {
+            throw new IllegalArgumentException("no layouts for " + config);
+        }
+        this.config = config;
+        this.params = params;
+        this.layoutSize = 2 * config.getCells();
+        this.layouts = layouts;
+        this.weights = weights;
+        this.attempts = attempts;
+        long total = 0;
+        for (int w : weights) {
+            if (w <= 0) {
+                throw new IllegalArgumentException("weights must be positive: " + w);
+            }
+            total += w;
+        }
+        this.samples = total;
+        this.keep = new double[weights.length];
+        this.alias = new int[weights.length];
+        buildAliasTable();
+    }
+
+    // Vose's alias method: entries below the mean weight are topped up from one above it, so every
+    // column of the table holds exactly the mean, split between at most two entries
+    private void buildAliasTable() {
+        int n = weights.length;
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smalls = 0;
+        int larges = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = (double) weights[i] * n / samples;
+            if (scaled[i] < 1) {
+                small[smalls++] = i;
+            } else {
+                large[larges++] = i;
+            }
+        }
+        while (smalls > 0 && larges > 0) {
+            int s = small[--smalls];
+            int l = large[--larges];
+            keep[s] = scaled[s];
+            alias[s] = l;
+            scaled[l] += scaled[s] - 1;
+            if (scaled[l] < 1) {
+                small[smalls++] = l;
+            } else {
+                large[larges++] = l;
+            }
+        }
+        // what is left is within rounding of the mean
+        while (larges > 0) {
+            int l = large[--larges];
+            keep[l] = 1;
+            alias[l] = l;
+        }
+        while (smalls > 0) {
+            int s = small[--smalls];
+            keep[s] = 1;
+            alias[s] = s;
+        }
+    }
+
+    public MazeConfig getConfig() {
+        return config;
+    }
+
+    // The params the layouts were grown with
+    public GenerationParams getParams() {
+        return params;
+    }
+
+    // Number of distinct layouts
+    public int size() {
+        return weights.length;
+    }
+
+    // Attempts run to build the table
+    public long getAttempts() {
+        return attempts;
+    }
+
+    // Accepted layouts seen while building it, repeats included
+    public long getSamples() {
+        return samples;
+    }
+
+    public int getWeight(int index) {
+        return weights[index];
+    }
+
+    // Estimated probability that gen() and isDesirable() give the layout
+    public double getProbability(int index) {
+        return (double) weights[index] / samples;
+    }
+
+    // Estimated probability of the accepted layouts that aren't in the table
+    public double getMissingMass() {
+        int once = 0;
+        for (int w : weights) {
+            if (w == 1) {
+                once++;
+            }
+        }
+        return (double) once / samples;
+    }
+
+    // Bytes the table takes in a file
+    public long getEncodedSize() {
+        return HEADER_SIZE + (long) weights.length * (4 + layoutSize);
+    }
+
+    // Index of a layout drawn with its estimated probability
+    public int draw(MazeRandom random) {
+        int i = random.nextInt(keep.length);
+        return random.nextDouble() < keep[i] ? i : alias[i];
+    }
+
+    // Leaves the generator as if gen() and isDesirable() had just produced the layout
+    void read(int index, TetrisGridGenerator generator) {
+        generator.readLayout(layouts, index * layoutSize);
+    }
+
+    // Runs attempts attempts (rounded up to whole chunks) from the given seed on parallelism threads
+    public static LayoutTable sample(MazeConfig config, long attempts, long seed, int parallelism)
+            throws InterruptedException {
+        return sample(config, GenerationParams.DEFAULT, attempts, seed, parallelism);
+    }
+
+    public static LayoutTable sample(MazeConfig config, GenerationParams params, long attempts, long seed,
+                                     int parallelism) throws InterruptedException {
+        if (config.getCells() > TetrisGridGenerator.MAX_LAYOUT_CELLS) {
+            throw new IllegalArgumentException("layout tables need a grid of at most "
+                    + TetrisGridGenerator.MAX_LAYOUT_CELLS + " cells: " + config);
+        }
+        if (attempts < 1) {
+            throw new IllegalArgumentException("attempts must be positive: " + attempts);
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        long chunks = (attempts + CHUNK - 1) / CHUNK;
+        AtomicLong nextChunk = new AtomicLong();
+        List<Callable<Map<ByteBuffer, int[]>>> workers = new ArrayList<>();
+        for (int w = 0; w < parallelism; w++) {
+            workers.add(() -> {
+                // each worker counts into its own map, and the maps are added up at the end
+                TetrisGridGenerator generator = new TetrisGridGenerator(config, 0);
+                generator.setParams(params);
+                Map<ByteBuffer, int[]> counts = new HashMap<>();
+                byte[] layout = new byte[generator.getLayoutSize()];
+                for (long chunk; (chunk = nextChunk.getAndIncrement()) < chunks; ) {
+                    generator.setSeed(MazeRandom.derive(seed, chunk));
+                    for (int attempt = 0; attempt < CHUNK; attempt++) {
+                        if (generator.runLayout(attempt)) {
+                            generator.writeLayout(layout, 0);
+                            int[] count = counts.get(ByteBuffer.wrap(layout));
+                            if (count == null) {
+                                counts.put(ByteBuffer.wrap(layout.clone()), new int[] {1});
+                            } else {
+                                count[0]++;
+                            }
+                        }
+                    }
+                }
+                return counts;
+            });
+        }
+
+        Map<ByteBuffer, int[]> counts = new HashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        try {
+            for (Future<Map<ByteBuffer, int[]>> future : pool.invokeAll(workers)) {
+                for (Map.Entry<ByteBuffer, int[]> e : future.get().entrySet()) {
+                    counts.merge(e.getKey(), e.getValue(), (a, b) -> {
+                        a[0] += b[0];
+                        return a;
+                    });
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("sampling layouts failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        // heaviest first, ties by layout, so the table doesn't depend on hash order
+        List<Map.Entry<ByteBuffer, int[]>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort((a, b) -> a.getValue()[0] != b.getValue()[0]
+                ? Integer.compare(b.getValue()[0], a.getValue()[0])
+                : a.getKey().compareTo(b.getKey()));
+        int layoutSize = 2 * config.getCells();
+        byte[] layouts = new byte[entries.size() * layoutSize];
+        int[] weights = new int[entries.size()];
+        for (int i = 0; i < weights.length; i++) {
+            entries.get(i).getKey().duplicate().get(layouts, i * layoutSize, layoutSize);
+            weights[i] = entries.get(i).getValue()[0];
+        }
+        return new LayoutTable(config, params, layouts, weights, chunks * CHUNK);
+    }
+
+    public void save(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(getEncodedSize())).order(ByteOrder.BIG_ENDIAN);
+        buffer.putLong(MAGIC)
+                .putInt(VERSION)
+                .putInt(config.rows)
+                .putInt(config.cols)
+                .putInt(weights.length)
+                .putLong(attempts);
+        for (String name : GenerationParams.NAMES) {
+            buffer.putDouble(params.get(name));
+        }
+        for (int i = 0; i < weights.length; i++) {
+            buffer.putInt(weights[i]).put(layouts, i * layoutSize, layoutSize);
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    public static LayoutTable load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading until the header is complete or the file ends
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getLong() != MAGIC) {
+                throw new IOException("not a layout table: " + path);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported layout table version " + version + ": " + path);
+            }
+            int rows = header.getInt();
+            int cols = header.getInt();
+            MazeConfig config;
+            try {
+                config = new MazeConfig(rows, cols);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("corrupt layout table: " + path, e);
+            }
+            // checked in longs, as rows * cols of a corrupt header can overflow getCells()
+            if ((long) rows * cols > TetrisGridGenerator.MAX_LAYOUT_CELLS) {
+                throw new IOException("corrupt layout table: " + path);
+            }
+            int count = header.getInt();
+            long attempts = header.getLong();
+            GenerationParams params = GenerationParams.DEFAULT;
+            try {
+                for (String name : GenerationParams.NAMES) {
+                    params = params.with(name, header.getDouble());
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException("corrupt layout table: " + path, e);
+            }
+            int layoutSize = 2 * config.getCells();
+            if (count <= 0 || (long) count * (4 + layoutSize) > Integer.MAX_VALUE
+                    || channel.size() < HEADER_SIZE + (long) count * (4 + layoutSize)) {
+                throw new IOException("corrupt layout table: " + path);
+            }
+
+            ByteBuffer entries = ByteBuffer.allocate(count * (4 + layoutSize)).order(ByteOrder.BIG_ENDIAN);
+            while (entries.hasRemaining() && channel.read(entries) >= 0) {
+                // keep reading until every entry is in
+            }
+            entries.flip();
+            byte[] layouts = new byte[count * layoutSize];
+            int[] weights = new int[count];
+            for (int i = 0; i < count; i++) {
+                weights[i] = entries.getInt();
+                entries.get(layouts, i * layoutSize, layoutSize);
+            }
+            try {
+                return new LayoutTable(config, params, layouts, weights, attempts);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("corrupt layout table: " + path, e);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        long attempts = args.length > 0 ? Long.parseLong(args[0]) : 4_000_000;
+        MazeConfig config = args.length > 1 ? MazeConfig.parse(args[1]) : MazeConfig.DEFAULT;
+        int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        Path path = Path.of(args.length > 3 ? args[3] : "layouts.tbl");
+
+        long start = System.nanoTime();
+        LayoutTable table = sample(config, attempts, 0, parallelism);
+        System.out.printf("%s: %d attempts on %d threads in %.1f s, %d accepted, %d distinct layouts%n",
+                config, table.getAttempts(), parallelism, (System.nanoTime() - start) / 1e9, table.getSamples(),
+                table.size());
+        System.out.printf("heaviest layout p=%.2e, estimated missing mass %.3f, %d bytes%n",
+                table.getProbability(0), table.getMissingMass(), table.getEncodedSize());
+        table.save(path);
+        LayoutTable loaded = load(path);
+        System.out.printf("saved to %s, reloaded %d layouts%n", path, loaded.size());
+
+        // whole mazes, growing every layout against drawing it from the table
+        int mazes = 2_000;
+        TetrisGridGenerator generator = new TetrisGridGenerator(config, 0);
+        for (int round = 0; round < 4; round++) {
+            // rounds 0 and 1 warm up
+            boolean fromTable = round % 2 == 1;
+            generator.setLayoutTable(fromTable ? loaded : null);
+            long attemptsBefore = generator.getAttempts();
+            long t = System.nanoTime();
+            for (int i = 0; i < mazes; i++) {
+                generator.setSeed(MazeRandom.derive(round, i));
+                generator.generateTiles();
+            }
+            long nanos = System.nanoTime() - t;
+            if (round >= 2) {
+                System.out.printf("%-10s %.2f attempts/maze, %.1f us/maze%n", fromTable ? "table:" : "grown:",
+                        (double) (generator.getAttempts() - attemptsBefore) / mazes, nanos / 1e3 / mazes);
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+// A generated map, as returned by TetrisGridGenerator.getTiles(), along with the seed that produced it.
+public class Maze {
+    public final long index;
+    public final long seed;
+    public final String tiles;
+    public final int width;
+
+    public Maze(long index, long seed, String tiles, int width) {
+        this.index = index;
+        this.seed = seed;
+        this.tiles = tiles;
+        this.width = width;
+    }
+
+    public int getHeight() {
+        return tiles.length() / width;
+    }
+
+    public String getRow(int y) {
+        return tiles.substring(y * width, (y + 1) * width);
+    }
+
+    // One line per tile row, the same layout genRandom() prints
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(tiles.length() + getHeight());
+        for (int y = 0; y < getHeight(); y++) {
+            sb.append(tiles, y * width, (y + 1) * width).append('\n');
+        }
+        return sb.toString();
+    }
+}
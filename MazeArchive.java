@@ -0,0 +1,290 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// File of pre-generated mazes, packed with MazeCodec into fixed-size records and read through memory
+// mappings, so an archive of any size opens instantly and reads never copy it onto the heap.
+//
+// Maze i of an archive is generated from MazeRandom.derive(batchSeed, i), the same seed as maze i of a
+// MazeBatchGenerator batch. derive() can be inverted, so the seed index needs no storage: the ordinal of
+// a seed is MazeRandom.underive(batchSeed, seed), checked against the archive's count.
+//
+// Layout: a 64 byte header, then count records of recordSize bytes each.
+//
+//   offset  size
+//        0     8   magic "MZARCHIV"
+//        8     4   version
+//       12     4   rows
+//       16     4   cols
+//       20     4   record size
+//       24     8   count
+//       32     8   batch seed
+//
+// Records are mapped in chunks of at most 1 GiB, since a single mapping is limited to 2 GiB.
+public class MazeArchive implements AutoCloseable {
+
+    public static final int HEADER_SIZE = 64;
+    public static final int VERSION = 1;
+
+    private static final long MAGIC = 0x4D5A415243484956L; // "MZARCHIV"
+    private static final int CHUNK_BYTES = 1 << 30;
+
+    // Mazes a writer thread claims at a time
+    private static final int WRITE_BLOCK = 256;
+
+    private final FileChannel channel;
+    private final MazeConfig config;
+    private final int recordSize;
+    private final long count;
+    private final long batchSeed;
+    private final int recordsPerChunk;
+    private final MappedByteBuffer[] chunks;
+
+    private MazeArchive(FileChannel channel, MazeConfig config, int recordSize, long count, long batchSeed,
+                        MappedByteBuffer[] chunks) {
+        this.channel = channel;
+        this.config = config;
+        this.recordSize = recordSize;
+        this.count = count;
+        this.batchSeed = batchSeed;
+        this.recordsPerChunk = CHUNK_BYTES / recordSize;
+        this.chunks = chunks;
+    }
+
+    // Generates count mazes on parallelism threads and writes them to path, replacing any file there.
+    // The header is written last, so an archive whose writing was interrupted can't be opened. A seed
+    // that runs out of attempts fails the write with an IllegalStateException, since its map isn't valid.
+    public static void write(Path path, MazeConfig config, long batchSeed, long count, int parallelism)
+            throws IOException, InterruptedException {
+        write(path, config, batchSeed, count, parallelism, GenerationListener.NONE);
+    }
+
+    public static void write(Path path, MazeConfig config, long batchSeed, long count, int parallelism,
+                             GenerationListener listener) throws IOException, InterruptedException {
+        if (count < 0 || parallelism < 1) {
+            throw new IllegalArgumentException("count must not be negative and parallelism must be positive");
+        }
+        int recordSize = recordSize(config);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer[] chunks = map(channel, MapMode.READ_WRITE, recordSize, count);
+
+            AtomicLong next = new AtomicLong();
+            ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+            try {
+                List<Callable<Void>> writers = new ArrayList<>();
+                for (int t = 0; t < parallelism; t++) {
+                    writers.add(() -> {
+                        writeRecords(chunks, config, recordSize, batchSeed, count, next, listener);
+                        return null;
+                    });
+                }
+                for (Future<Void> future : pool.invokeAll(writers)) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+            for (MappedByteBuffer chunk : chunks) {
+                chunk.force();
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            header.putLong(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(config.rows)
+                    .putInt(config.cols)
+                    .putInt(recordSize)
+                    .putLong(count)
+                    .putLong(batchSeed)
+                    .clear();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+    }
+
+    private static void writeRecords(MappedByteBuffer[] chunks, MazeConfig config, int recordSize, long batchSeed,
+                                     long count, AtomicLong next, GenerationListener listener) {
+        TetrisGridGenerator generator = new TetrisGridGenerator(config);
+        generator.setListener(listener);
+        int recordsPerChunk = CHUNK_BYTES / recordSize;
+        // this thread's own views of the chunks, so positions aren't shared between writers
+        ByteBuffer[] views = new ByteBuffer[chunks.length];
+        for (long from; (from = next.getAndAdd(WRITE_BLOCK)) < count; ) {
+            long to = Math.min(from + WRITE_BLOCK, count);
+            for (long ordinal = from; ordinal < to; ordinal++) {
+                long seed = MazeRandom.derive(batchSeed, ordinal);
+                generator.setSeed(seed);
+                GenerationOutcome outcome = generator.generateTiles(TetrisGridGenerator.MAX_ATTEMPTS, null);
+                if (outcome != GenerationOutcome.SUCCESS) {
+                    throw new IllegalStateException("maze " + ordinal + " (seed " + seed + "): " + outcome
+                            + " after " + generator.getLastAttempts() + " attempts");
+                }
+                int chunk = (int) (ordinal / recordsPerChunk);
+                if (views[chunk] == null) {
+                    views[chunk] = chunks[chunk].duplicate();
+                }
+                views[chunk].position((int) (ordinal % recordsPerChunk) * recordSize);
+                MazeCodec.encode(generator, views[chunk]);
+            }
+        }
+    }
+
+    public static MazeArchive open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // keep reading until the header is complete or the file ends
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getLong() != MAGIC) {
+                throw new IOException("not a maze archive: " + path);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported maze archive version " + version + ": " + path);
+            }
+            MazeConfig config;
+            try {
+                config = new MazeConfig(header.getInt(), header.getInt());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("corrupt maze archive: " + path, e);
+            }
+            int recordSize = header.getInt();
+            long count = header.getLong();
+            long batchSeed = header.getLong();
+            // count is divided out rather than multiplied in, so a corrupt one can't overflow the check
+            if (recordSize <= 0 || recordSize > CHUNK_BYTES || recordSize != recordSize(config) || count < 0
+                    || count > (channel.size() - HEADER_SIZE) / recordSize) {
+                throw new IOException("corrupt maze archive: " + path);
+            }
+            MappedByteBuffer[] chunks = map(channel, MapMode.READ_ONLY, recordSize, count);
+            return new MazeArchive(channel, config, recordSize, count, batchSeed, chunks);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static int recordSize(MazeConfig config) {
+        return MazeCodec.encodedSize(config.fullcols, TetrisGridGenerator.mapHeight(config));
+    }
+
+    private static MappedByteBuffer[] map(FileChannel channel, MapMode mode, int recordSize, long count)
+            throws IOException {
+        long recordsPerChunk = CHUNK_BYTES / recordSize;
+        MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((count + recordsPerChunk - 1) / recordsPerChunk)];
+        for (int i = 0; i < chunks.length; i++) {
+            long first = i * recordsPerChunk;
+            long records = Math.min(recordsPerChunk, count - first);
+            chunks[i] = channel.map(mode, HEADER_SIZE + first * recordSize, records * recordSize);
+        }
+        return chunks;
+    }
+
+    public MazeConfig getConfig() {
+        return config;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getBatchSeed() {
+        return batchSeed;
+    }
+
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+    // Ordinal of the maze generated from seed, or -1 if it isn't in this archive
+    public long ordinalOf(long seed) {
+        long ordinal = MazeRandom.underive(batchSeed, seed);
+        return ordinal >= 0 && ordinal < count ? ordinal : -1;
+    }
+
+    public long seedOf(long ordinal) {
+        checkOrdinal(ordinal);
+        return MazeCodec.seed(chunk(ordinal), offset(ordinal));
+    }
+
+    // Decodes the maze into tiles, which must hold width * height chars; reads allocate nothing and
+    // may run concurrently
+    public void read(long ordinal, char[] tiles) {
+        checkOrdinal(ordinal);
+        MazeCodec.decode(chunk(ordinal), offset(ordinal), tiles);
+    }
+
+    // Returns false if the seed isn't in this archive
+    public boolean readBySeed(long seed, char[] tiles) {
+        long ordinal = ordinalOf(seed);
+        if (ordinal < 0) {
+            return false;
+        }
+        read(ordinal, tiles);
+        return true;
+    }
+
+    // Copies the packed record into dst at its position, e.g. to send it as is
+    public void copy(long ordinal, ByteBuffer dst) {
+        checkOrdinal(ordinal);
+        ByteBuffer chunk = chunk(ordinal);
+        int offset = offset(ordinal);
+        for (int i = 0; i < recordSize; i++) {
+            dst.put(chunk.get(offset + i));
+        }
+    }
+
+    public Maze get(long ordinal) {
+        checkOrdinal(ordinal);
+        ByteBuffer chunk = chunk(ordinal);
+        int offset = offset(ordinal);
+        int width = MazeCodec.width(chunk, offset);
+        char[] tiles = new char[width * MazeCodec.height(chunk, offset)];
+        MazeCodec.decode(chunk, offset, tiles);
+        return new Maze(ordinal, MazeCodec.seed(chunk, offset), new String(tiles), width);
+    }
+
+    // Null if the seed isn't in this archive
+    public Maze getBySeed(long seed) {
+        long ordinal = ordinalOf(seed);
+        return ordinal < 0 ? null : get(ordinal);
+    }
+
+    private void checkOrdinal(long ordinal) {
+        if (ordinal < 0 || ordinal >= count) {
+            throw new IndexOutOfBoundsException("ordinal " + ordinal + " of " + count);
+        }
+    }
+
+    private ByteBuffer chunk(long ordinal) {
+        return chunks[(int) (ordinal / recordsPerChunk)];
+    }
+
+    private int offset(long ordinal) {
+        return (int) (ordinal % recordsPerChunk) * recordSize;
+    }
+
+    // The mappings stay valid until they are garbage collected; closing releases the file
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
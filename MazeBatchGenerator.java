@@ -0,0 +1,107 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+// Generates batches of mazes on a ForkJoin pool where every worker thread owns its own TetrisGridGenerator.
+// Each maze is generated from a seed derived from the batch seed and its index, so a batch is the same
+// no matter how many threads produced it. A maze whose seed runs out of attempts has no valid map, so it
+// fails the batch with an IllegalStateException rather than being handed out.
+public class MazeBatchGenerator {
+
+    // Mazes per leaf task, small enough to keep every worker busy until the end of the batch
+    private static final int LEAF_SIZE = 4;
+
+    // Returns the batch in index order
+    public static List<Maze> generate(int count, long seed, int parallelism) {
+        return generate(MazeConfig.DEFAULT, count, seed, parallelism);
+    }
+
+    public static List<Maze> generate(MazeConfig config, int count, long seed, int parallelism) {
+        Maze[] mazes = new Maze[count];
+        generate(config, count, seed, parallelism, GenerationListener.NONE, maze -> mazes[(int) maze.index] = maze);
+        return Arrays.asList(mazes);
+    }
+
+    // Calls onComplete from the worker threads as soon as each maze is finished, so the calls arrive in
+    // completion order and may be concurrent. Returns once the whole batch is done.
+    public static void generate(int count, long seed, int parallelism, Consumer<Maze> onComplete) {
+        generate(count, seed, parallelism, GenerationListener.NONE, onComplete);
+    }
+
+    // As above, with every worker's generator reporting to the given (thread-safe) listener
+    public static void generate(int count, long seed, int parallelism, GenerationListener listener,
+                                Consumer<Maze> onComplete) {
+        generate(MazeConfig.DEFAULT, count, seed, parallelism, listener, onComplete);
+    }
+
+    // As above, with grids of the given size
+    public static void generate(MazeConfig config, int count, long seed, int parallelism, GenerationListener listener,
+                                Consumer<Maze> onComplete) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count must not be negative: " + count);
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism, p -> new Worker(p, config), null, false);
+        try {
+            pool.invoke(new Batch(seed, 0, count, listener, onComplete));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Seed of the maze at the given index of a batch
+    public static long mazeSeed(long batchSeed, long index) {
+        return MazeRandom.derive(batchSeed, index);
+    }
+
+    static Maze generateOne(TetrisGridGenerator generator, long index, long batchSeed) {
+        long seed = mazeSeed(batchSeed, index);
+        generator.setSeed(seed);
+        GenerationOutcome outcome = generator.generateTiles(TetrisGridGenerator.MAX_ATTEMPTS, null);
+        if (outcome != GenerationOutcome.SUCCESS) {
+            throw new IllegalStateException("maze " + index + " (seed " + seed + "): " + outcome + " after "
+                    + generator.getLastAttempts() + " attempts");
+        }
+        return new Maze(index, seed, generator.getTileString(), generator.getWidth());
+    }
+
+    private static class Worker extends ForkJoinWorkerThread {
+        final TetrisGridGenerator generator;
+
+        Worker(ForkJoinPool pool, MazeConfig config) {
+            super(pool);
+            generator = new TetrisGridGenerator(config);
+        }
+    }
+
+    private static class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long seed;
+        private final int from;
+        private final int to;
+        private final GenerationListener listener;
+        private final Consumer<Maze> onComplete;
+
+        Batch(long seed, int from, int to, GenerationListener listener, Consumer<Maze> onComplete) {
+            this.seed = seed;
+            this.from = from;
+            this.to = to;
+            this.listener = listener;
+            this.onComplete = onComplete;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_SIZE) {
+                TetrisGridGenerator generator = ((Worker) Thread.currentThread()).generator;
+                generator.setListener(listener);
+                for (int i = from; i < to; i++) {
+                    onComplete.accept(generateOne(generator, i, seed));
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Batch(seed, from, mid, listener, onComplete), new Batch(seed, mid, to, listener, onComplete));
+        }
+    }
+}
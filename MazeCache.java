@@ -0,0 +1,202 @@
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Cache of finished mazes in front of a generator, keyed by seed and generation parameters.
+// Entries are evicted least-recently-used once maxEntries is reached, and expire ttl after they were
+// generated; expired entries are also dropped when a new one is stored. Concurrent misses for the same key share a single generation (single-flight), so a burst
+// of requests for a new daily seed only costs one run of the retry loop.
+//
+// P is whatever identifies the generation parameters; it must implement equals() and hashCode().
+public class MazeCache<P> {
+
+    public interface Generator<P> {
+        Maze generate(long seed, P params);
+    }
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Generator<P> generator;
+
+    private final Map<Key<P>, Entry> entries; // access ordered, guarded by itself
+    private final ConcurrentMap<Key<P>, CompletableFuture<Maze>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    // ttl of null means entries never expire
+    public MazeCache(int maxEntries, Duration ttl, Generator<P> generator) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl == null ? Long.MAX_VALUE : ttl.toNanos();
+        this.generator = generator;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key<P>, Entry> eldest) {
+                if (size() > MazeCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Cache in front of the standard generator; the parameters are ignored
+    public static MazeCache<Object> standard(int maxEntries, Duration ttl) {
+        ThreadLocal<TetrisGridGenerator> generators = ThreadLocal.withInitial(TetrisGridGenerator::new);
+        return new MazeCache<>(maxEntries, ttl, (seed, params) -> {
+            TetrisGridGenerator generator = generators.get();
+            generator.setSeed(seed);
+            return new Maze(0, seed, generator.generate(), generator.getWidth());
+        });
+    }
+
+    public Maze get(long seed, P params) {
+        Key<P> key = new Key<>(seed, params);
+        Maze cached = lookup(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        CompletableFuture<Maze> flight = new CompletableFuture<>();
+        CompletableFuture<Maze> leader = inFlight.putIfAbsent(key, flight);
+        if (leader != null) {
+            // someone else is already generating this maze
+            coalesced.increment();
+            try {
+                return leader.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        misses.increment();
+        try {
+            // it may have been stored between the lookup and claiming the flight
+            Maze maze = lookup(key);
+            if (maze == null) {
+                maze = generator.generate(seed, params);
+                long now = System.nanoTime();
+                synchronized (entries) {
+                    removeExpired(now);
+                    entries.put(key, new Entry(maze, now));
+                }
+            }
+            flight.complete(maze);
+            return maze;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private Maze lookup(Key<P> key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.nanoTime() - entry.createdNanos >= ttlNanos) {
+                entries.remove(key);
+                expirations.increment();
+                return null;
+            }
+            return entry.maze;
+        }
+    }
+
+    // An entry not used for ttl must have expired, since it was created before its last use, so the
+    // entries idle for longer than that are all at the least recently used end. Removing expired ones
+    // from there until the first live one gets rid of them without scanning the whole map. Expired
+    // entries still in use are left to lookup().
+    private void removeExpired(long now) {
+        if (ttlNanos == Long.MAX_VALUE) {
+            return;
+        }
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext() && now - it.next().createdNanos >= ttlNanos) {
+            it.remove();
+            expirations.increment();
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    // Lookups that had to generate the maze
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    // Misses that waited for a generation already running for the same key instead of starting their own
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    private static final class Key<P> {
+        final long seed;
+        final P params;
+
+        Key(long seed, P params) {
+            this.seed = seed;
+            this.params = params;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key<?> other = (Key<?>) o;
+            return seed == other.seed && Objects.equals(params, other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(seed) * 31 + Objects.hashCode(params);
+        }
+    }
+
+    // Mazes are immutable, so a hit returns the stored one; its tiles are ASCII, which a String already
+    // keeps one byte per char
+    private static final class Entry {
+        final Maze maze;
+        final long createdNanos;
+
+        Entry(Maze maze, long createdNanos) {
+            this.maze = maze;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Packed binary form of a map, 3 bits per tile, about 5x smaller than the tile string as UTF-16 chars.
+//
+// A maze is a 16 byte header followed by the tiles, row by row from the top left, 8 tiles in each 3 byte
+// group with the first tile in the low bits (a last partial group is padded with blank tiles):
+//
+//   offset  size
+//        0     2   magic "MZ"
+//        2     1   format version
+//        3     1   bits per tile
+//        4     2   width in tiles
+//        6     2   height in tiles
+//        8     8   seed
+//
+// Header fields are big-endian whatever the order of the buffer. Encoding reads the generator's tile
+// buffer directly and decoding can fill a caller's char array, so neither needs an intermediate String.
+public final class MazeCodec {
+
+    public static final int HEADER_SIZE = 16;
+    public static final int VERSION = 1;
+    public static final int BITS_PER_TILE = 3;
+
+    private static final short MAGIC = ('M' << 8) | 'Z';
+
+    // Tile characters indexed by their 3 bit code; ' ' is a path without a pellet (tunnels, the
+    // start position and around the ghost house)
+    private static final char[] TILES = {'_', '|', '.', 'o', '-', ' '};
+
+    private MazeCodec() {
+    }
+
+    static int code(char tile) {
+        switch (tile) {
+            case '_': return 0;
+            case '|': return 1;
+            case '.': return 2;
+            case 'o': return 3;
+            case '-': return 4;
+            case ' ': return 5;
+            default: throw new IllegalArgumentException("not a tile: '" + tile + "'");
+        }
+    }
+
+    // Bytes taken by a maze of the given size, header included
+    public static int encodedSize(int width, int height) {
+        return HEADER_SIZE + (width * height + 7) / 8 * 3;
+    }
+
+    // Writes the map the generator last rendered at the buffer's position
+    public static void encode(TetrisGridGenerator generator, ByteBuffer out) {
+        int width = generator.getWidth();
+        int height = generator.getHeight();
+        writeHeader(out, width, height, generator.getSeed());
+        int n = width * height;
+        for (int i = 0; i < n; i += 8) {
+            int bits = 0;
+            for (int k = 0; k < 8 && i + k < n; k++) {
+                bits |= code(generator.getMapTile(i + k)) << (k * BITS_PER_TILE);
+            }
+            putGroup(out, bits);
+        }
+    }
+
+    public static void encode(Maze maze, ByteBuffer out) {
+        writeHeader(out, maze.width, maze.getHeight(), maze.seed);
+        String tiles = maze.tiles;
+        int n = tiles.length();
+        for (int i = 0; i < n; i += 8) {
+            int bits = 0;
+            for (int k = 0; k < 8 && i + k < n; k++) {
+                bits |= code(tiles.charAt(i + k)) << (k * BITS_PER_TILE);
+            }
+            putGroup(out, bits);
+        }
+    }
+
+    private static void writeHeader(ByteBuffer out, int width, int height, long seed) {
+        if (width > 0xFFFF || height > 0xFFFF) {
+            throw new IllegalArgumentException("map too large to encode: " + width + "x" + height);
+        }
+        if (out.remaining() < encodedSize(width, height)) {
+            throw new BufferOverflowException();
+        }
+        ByteOrder order = out.order();
+        out.order(ByteOrder.BIG_ENDIAN);
+        out.putShort(MAGIC)
+                .put((byte) VERSION)
+                .put((byte) BITS_PER_TILE)
+                .putShort((short) width)
+                .putShort((short) height)
+                .putLong(seed);
+        out.order(order);
+    }
+
+    private static void putGroup(ByteBuffer out, int bits) {
+        out.put((byte) bits).put((byte) (bits >>> 8)).put((byte) (bits >>> 16));
+    }
+
+    // Header fields of the maze at the buffer's position, without moving it
+    public static int width(ByteBuffer in) {
+        return width(in, in.position());
+    }
+
+    public static int height(ByteBuffer in) {
+        return height(in, in.position());
+    }
+
+    public static long seed(ByteBuffer in) {
+        return seed(in, in.position());
+    }
+
+    // Header fields of the maze at an absolute offset of the buffer
+    public static int width(ByteBuffer in, int offset) {
+        return checkHeader(in, offset) >>> 16;
+    }
+
+    public static int height(ByteBuffer in, int offset) {
+        return checkHeader(in, offset) & 0xFFFF;
+    }
+
+    public static long seed(ByteBuffer in, int offset) {
+        checkHeader(in, offset);
+        long seed = 0;
+        for (int i = 0; i < 8; i++) {
+            seed = seed << 8 | (in.get(offset + 8 + i) & 0xFF);
+        }
+        return seed;
+    }
+
+    // Validates the header and returns width << 16 | height
+    private static int checkHeader(ByteBuffer in, int offset) {
+        if (in.limit() - offset < HEADER_SIZE) {
+            throw new BufferUnderflowException();
+        }
+        int magic = (in.get(offset) & 0xFF) << 8 | (in.get(offset + 1) & 0xFF);
+        if (magic != (MAGIC & 0xFFFF)) {
+            throw new IllegalArgumentException("not an encoded maze");
+        }
+        if (in.get(offset + 2) != VERSION || in.get(offset + 3) != BITS_PER_TILE) {
+            throw new IllegalArgumentException("unsupported maze format version " + in.get(offset + 2));
+        }
+        int width = (in.get(offset + 4) & 0xFF) << 8 | (in.get(offset + 5) & 0xFF);
+        int height = (in.get(offset + 6) & 0xFF) << 8 | (in.get(offset + 7) & 0xFF);
+        return width << 16 | height;
+    }
+
+    // Reads the maze at the buffer's position into tiles (at least width * height long) and returns
+    // its tile count; the buffer is left after the maze.
+    public static int decode(ByteBuffer in, char[] tiles) {
+        int offset = in.position();
+        int n = decode(in, offset, tiles);
+        in.position(offset + encodedSize(width(in, offset), height(in, offset)));
+        return n;
+    }
+
+    // As above for the maze at an absolute offset, leaving the buffer's position alone so readers can
+    // share one buffer
+    public static int decode(ByteBuffer in, int offset, char[] tiles) {
+        int size = checkHeader(in, offset);
+        int n = (size >>> 16) * (size & 0xFFFF);
+        if (tiles.length < n) {
+            throw new IllegalArgumentException("tile array too small: " + tiles.length + " < " + n);
+        }
+        if (in.limit() - offset < encodedSize(size >>> 16, size & 0xFFFF)) {
+            throw new BufferUnderflowException();
+        }
+        int p = offset + HEADER_SIZE;
+        for (int i = 0; i < n; i += 8, p += 3) {
+            int bits = (in.get(p) & 0xFF) | (in.get(p + 1) & 0xFF) << 8 | (in.get(p + 2) & 0xFF) << 16;
+            for (int k = 0; k < 8 && i + k < n; k++) {
+                int code = bits >>> (k * BITS_PER_TILE) & 7;
+                if (code >= TILES.length) {
+                    throw new IllegalArgumentException("bad tile code " + code + " at tile " + (i + k));
+                }
+                tiles[i + k] = TILES[code];
+            }
+        }
+        return n;
+    }
+
+    // Reads the maze at the buffer's position as a Maze with the given index, leaving the buffer after it.
+    // Named apart from decode(in, offset, tiles), whose int is a position in the buffer.
+    public static Maze decodeMaze(ByteBuffer in, long index) {
+        int width = width(in);
+        long seed = seed(in);
+        char[] tiles = new char[width * height(in)];
+        decode(in, tiles);
+        return new Maze(index, seed, new String(tiles), width);
+    }
+}
@@ -0,0 +1,95 @@
+// Grid dimensions of a generated maze, and every size and position that is derived from them.
+// The cell grid is the right half of the map: cells are rows x cols, each cell becomes 3x3 tiles, and the
+// tile grid is mirrored about its left edge into a map fullcols tiles wide.
+//
+// The ghost house sits at x == 0 in the two cells starting at ghostRow, centred vertically, and the start
+// position is the pair of cells at x == 0 three rows below it. The tile rows of the door, the ghost house
+// and the start position follow from those cell rows, as do the bands that tunnels are sorted into:
+// rows up to topTunnelRow are the top band, rows from bottomTunnelRow down are the bottom band.
+public final class MazeConfig {
+
+    public static final MazeConfig DEFAULT = new MazeConfig(9, 5);
+
+    // The ghost house and the start position below it need 7 rows; connections are kept as one long per row.
+    public static final int MIN_ROWS = 7;
+    public static final int MIN_COLS = 3;
+    public static final int MAX_COLS = 64;
+
+    public final int rows;
+    public final int cols;
+
+    // Tile grid of the right half, with its 2 columns of overlap at the mirror, and the full map width
+    public final int subrows;
+    public final int subcols;
+    public final int midcols;
+    public final int fullcols;
+
+    public final int ghostRow;
+    public final int startRow;
+
+    public final int doorTileRow;
+    public final int ghostTopTileRow;
+    public final int ghostBottomTileRow;
+    public final int startTileRow;
+
+    public final int topTunnelRow;
+    public final int bottomTunnelRow;
+
+    public MazeConfig(int rows, int cols) {
+        if (rows < MIN_ROWS || cols < MIN_COLS || cols > MAX_COLS) {
+            throw new IllegalArgumentException("grid must be at least " + MIN_ROWS + "x" + MIN_COLS
+                    + " and at most " + MAX_COLS + " columns: " + rows + "x" + cols);
+        }
+        this.rows = rows;
+        this.cols = cols;
+
+        subrows = rows * 3 + 1 + 3;
+        subcols = cols * 3 - 1 + 2;
+        midcols = subcols - 2;
+        fullcols = (subcols - 2) * 2;
+
+        ghostRow = (rows - 3) / 2;
+        startRow = ghostRow + 3;
+
+        // A cell row y starts at tile row 3 * y + 2 once the tall row above the ghost house is added
+        doorTileRow = 3 * ghostRow + 3;
+        ghostTopTileRow = 3 * ghostRow + 2;
+        ghostBottomTileRow = 3 * (ghostRow + 2) + 2;
+        startTileRow = 3 * (startRow + 1) + 2;
+
+        topTunnelRow = ghostRow - 1;
+        bottomTunnelRow = ghostRow + 2;
+    }
+
+    // Parses "ROWSxCOLS", e.g. "9x5"
+    public static MazeConfig parse(String size) {
+        int x = size.indexOf('x');
+        if (x < 0) {
+            throw new IllegalArgumentException("expected ROWSxCOLS: " + size);
+        }
+        return new MazeConfig(Integer.parseInt(size.substring(0, x).trim()), Integer.parseInt(size.substring(x + 1).trim()));
+    }
+
+    public int getCells() {
+        return rows * cols;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof MazeConfig)) {
+            return false;
+        }
+        MazeConfig other = (MazeConfig) o;
+        return rows == other.rows && cols == other.cols;
+    }
+
+    @Override
+    public int hashCode() {
+        return rows * 31 + cols;
+    }
+
+    @Override
+    public String toString() {
+        return rows + "x" + cols;
+    }
+}
@@ -0,0 +1,125 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Closed-loop load test for MazeServer: each client sends a request for a random seed from a fixed set,
+// waits for the response and sends the next one. Reports throughput and latency percentiles. A small set
+// of seeds mostly measures cache hits and coalescing, a large one mostly measures generation.
+//
+// Without a url it starts a MazeServer on a free local port and tests that.
+//
+// Usage: java MazeLoadTest [seconds] [clients] [distinctSeeds] [ROWSxCOLS] [text|packed] [url]
+public class MazeLoadTest {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 10;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int distinctSeeds = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        MazeConfig config = args.length > 3 ? MazeConfig.parse(args[3]) : MazeConfig.DEFAULT;
+        String format = args.length > 4 ? args[4] : "text";
+        String url = args.length > 5 ? args[5] : null;
+
+        MazeServer server = null;
+        if (url == null) {
+            MazeServer.useNoDelay();
+            server = new MazeServer(new InetSocketAddress("localhost", 0), 10_000, null, Duration.ofSeconds(1));
+            server.start();
+            url = "http://localhost:" + server.getPort() + "/maze";
+        }
+        try {
+            run(url, seconds, clients, distinctSeeds, config, format);
+            if (server != null) {
+                MazeCache<MazeConfig> cache = server.getCache();
+                System.out.printf("server cache: %d hits, %d misses, %d coalesced%n",
+                        cache.getHits(), cache.getMisses(), cache.getCoalesced());
+            }
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    static void run(String url, double seconds, int clients, int distinctSeeds, MazeConfig config, String format)
+            throws InterruptedException, ExecutionException {
+        HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .build();
+        PercentileHistogram latency = new PercentileHistogram();
+        LongAdder errors = new LongAdder();
+        long durationNanos = (long) (seconds * 1e9);
+
+        ExecutorService pool = MazeServer.newRequestExecutor();
+        try {
+            // a short warm-up, so the JIT and the connection pool are ready before anything is recorded
+            List<Callable<Void>> warmUp = new ArrayList<>();
+            List<Callable<Void>> measured = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                warmUp.add(() -> {
+                    load(http, url, config, format, distinctSeeds, durationNanos / 5, null, errors);
+                    return null;
+                });
+                measured.add(() -> {
+                    load(http, url, config, format, distinctSeeds, durationNanos, latency, errors);
+                    return null;
+                });
+            }
+            for (Future<Void> future : pool.invokeAll(warmUp)) {
+                future.get();
+            }
+            errors.reset();
+            long start = System.nanoTime();
+            for (Future<Void> future : pool.invokeAll(measured)) {
+                future.get();
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("%d clients, %d distinct seeds, %s, %s%n", clients, distinctSeeds, config, format);
+            System.out.printf("%d requests in %.1f s, %.1f req/s, %d errors%n",
+                    latency.getCount(), elapsed, latency.getCount() / elapsed, errors.sum());
+            System.out.printf("latency (ms)  mean %.3f", latency.getMean() / 1e6);
+            for (double p : PERCENTILES) {
+                System.out.printf("  p%s %.3f", p == Math.rint(p) ? Long.toString((long) p) : Double.toString(p),
+                        latency.getValueAtPercentile(p) / 1e6);
+            }
+            System.out.printf("  max %.3f%n", latency.getMax() / 1e6);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Sends requests back to back for the given time, recording the latency of each successful one
+    private static void load(HttpClient http, String url, MazeConfig config, String format, int distinctSeeds,
+                             long durationNanos, PercentileHistogram latency, LongAdder errors) {
+        String prefix = url + "?size=" + config + "&format=" + format + "&seed=";
+        long end = System.nanoTime() + durationNanos;
+        while (System.nanoTime() < end) {
+            long seed = ThreadLocalRandom.current().nextInt(distinctSeeds);
+            HttpRequest request = HttpRequest.newBuilder(URI.create(prefix + seed)).GET().build();
+            long start = System.nanoTime();
+            try {
+                HttpResponse<byte[]> response = http.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                long nanos = System.nanoTime() - start;
+                if (response.statusCode() != 200) {
+                    errors.increment();
+                } else if (latency != null) {
+                    latency.record(nanos);
+                }
+            } catch (IOException e) {
+                errors.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+// SplitMix64 random number generator used for every random decision made while generating a maze.
+// It is deliberately not thread-safe: each TetrisGridGenerator owns one, so there is no shared atomic
+// seed to contend on, and split()/derive() hand out independent streams instead of sharing one.
+public final class MazeRandom {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final long GOLDEN_GAMMA_INVERSE = inverse(GOLDEN_GAMMA);
+
+    private long state;
+
+    public MazeRandom(long seed) {
+        this.state = seed;
+    }
+
+    public void setSeed(long seed) {
+        state = seed;
+    }
+
+    public long nextLong() {
+        return mix64(state += GOLDEN_GAMMA);
+    }
+
+    // Uniform integer in [0, bound)
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive: " + bound);
+        }
+        int r = (int) (nextLong() >>> 33);
+        int m = bound - 1;
+        if ((bound & m) == 0) {
+            return r & m;
+        }
+        for (int u = r >>> 1; u + m - (r = u % bound) < 0; u = (int) (nextLong() >>> 33)) {
+            // reject values from the incomplete last block so every result is equally likely
+        }
+        return r;
+    }
+
+    // Uniform double in [0, 1)
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    // A new generator whose stream is independent of this one
+    public MazeRandom split() {
+        return new MazeRandom(nextLong());
+    }
+
+    // Seed of the index-th independent stream derived from seed, without stepping through the others
+    public static long derive(long seed, long index) {
+        return mix64(seed + (index + 1) * GOLDEN_GAMMA);
+    }
+
+    // The index that derive(seed, index) was called with to get derived. derive() is a bijection for a
+    // fixed seed, so this is exact, and an index outside the range that was used means derived isn't one.
+    public static long underive(long seed, long derived) {
+        return (unmix64(derived) - seed) * GOLDEN_GAMMA_INVERSE - 1;
+    }
+
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    static long unmix64(long z) {
+        z = unshift(z, 31) * 0x319642B2D24D8EC3L;
+        z = unshift(z, 27) * 0x96DE1B173F119089L;
+        return unshift(z, 30);
+    }
+
+    // Inverse of z ^ (z >>> shift)
+    private static long unshift(long z, int shift) {
+        long x = z;
+        for (int s = shift; s < 64; s += shift) {
+            x ^= z >>> s;
+        }
+        return x;
+    }
+
+    // Multiplicative inverse of an odd number modulo 2^64 (Newton's iteration doubles the correct bits)
+    private static long inverse(long odd) {
+        long x = odd;
+        for (int i = 0; i < 5; i++) {
+            x *= 2 - odd * x;
+        }
+        return x;
+    }
+}
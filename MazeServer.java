@@ -0,0 +1,235 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+// HTTP front end that generates mazes on demand. Every request runs on its own virtual thread where the
+// JDK has them (Java 21 and later) and on a cached thread pool otherwise.
+//
+//   GET /maze?seed=N[&size=ROWSxCOLS][&format=text|packed]
+//
+// returns the maze for the seed, one tile row per line, or in MazeCodec's packed form. Finished mazes
+// are kept in a MazeCache, so concurrent requests for the same seed and size share a single generation.
+// GET /stats returns the cache counters. Generation is bounded by the server's timeout; a maze that
+// can't be generated within it is answered with 503 and not cached.
+//
+// Headers and body go out as separate writes, so with Nagle's algorithm on every response would wait for
+// the client's delayed ACK, about 40 ms. main() turns it off with -Dsun.net.httpserver.nodelay=true
+// unless the command line set it; an application embedding the server should pass that flag itself,
+// or call useNoDelay() before the first server is created.
+//
+// Usage: java MazeServer [port] [cacheEntries] [timeoutMillis]
+public class MazeServer implements AutoCloseable {
+
+    public static final int DEFAULT_PORT = 8080;
+
+    // Largest grid a request may ask for, in cells
+    static final int MAX_CELLS = 64 * 64;
+
+    // Grid sizes that keep idle generators; requests choose the size, so the pools are bounded
+    static final int IDLE_SIZES = 16;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final MazeCache<MazeConfig> cache;
+    private final Duration timeout;
+
+    // Idle generators per grid size, for the IDLE_SIZES sizes used last; virtual threads are not reused,
+    // so ThreadLocal generators would be allocated afresh for every request. Access ordered, guarded by
+    // itself.
+    private final Map<MazeConfig, Queue<TetrisGridGenerator>> idle = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<MazeConfig, Queue<TetrisGridGenerator>> eldest) {
+            return size() > IDLE_SIZES;
+        }
+    };
+
+    public MazeServer(InetSocketAddress address, int cacheEntries, Duration ttl, Duration timeout)
+            throws IOException {
+        this.timeout = timeout;
+        this.cache = new MazeCache<>(cacheEntries, ttl, this::generate);
+        this.executor = newRequestExecutor();
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+        server.createContext("/maze", this::handleMaze);
+        server.createContext("/stats", this::handleStats);
+    }
+
+    // One virtual thread per task where available, looked up reflectively so this still runs on older JDKs
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // Turns Nagle's algorithm off for the servers created after this, unless the property is already
+    // set. The JDK's server reads it once, so this affects every HttpServer in the JVM.
+    public static void useNoDelay() {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    // The port the server listens on, useful when it was bound to port 0
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public MazeCache<MazeConfig> getCache() {
+        return cache;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private Maze generate(long seed, MazeConfig config) {
+        Queue<TetrisGridGenerator> generators;
+        synchronized (idle) {
+            // a generator returned to a pool that was evicted meanwhile is simply dropped
+            generators = idle.computeIfAbsent(config, c -> new ConcurrentLinkedQueue<>());
+        }
+        TetrisGridGenerator generator = generators.poll();
+        if (generator == null) {
+            generator = new TetrisGridGenerator(config);
+        }
+        try {
+            generator.setSeed(seed);
+            GenerationOutcome outcome = generator.generateTiles(TetrisGridGenerator.MAX_ATTEMPTS, timeout);
+            if (outcome != GenerationOutcome.SUCCESS) {
+                throw new GenerationFailedException(outcome + " after " + generator.getLastAttempts() + " attempts");
+            }
+            return new Maze(0, seed, generator.getTileString(), generator.getWidth());
+        } finally {
+            generators.offer(generator);
+        }
+    }
+
+    private void handleMaze(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                sendText(exchange, 405, "method not allowed\n");
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String seedParam = query.get("seed");
+            if (seedParam == null) {
+                sendText(exchange, 400, "missing seed\n");
+                return;
+            }
+            long seed;
+            MazeConfig config;
+            try {
+                seed = Long.parseLong(seedParam);
+                config = query.containsKey("size") ? MazeConfig.parse(query.get("size")) : MazeConfig.DEFAULT;
+            } catch (IllegalArgumentException e) {
+                sendText(exchange, 400, e.getMessage() + "\n");
+                return;
+            }
+            if (config.getCells() > MAX_CELLS) {
+                sendText(exchange, 400, "grid larger than " + MAX_CELLS + " cells: " + config + "\n");
+                return;
+            }
+            String format = query.getOrDefault("format", "text");
+            if (!format.equals("text") && !format.equals("packed")) {
+                sendText(exchange, 400, "unknown format: " + format + "\n");
+                return;
+            }
+
+            Maze maze;
+            try {
+                maze = cache.get(seed, config);
+            } catch (GenerationFailedException e) {
+                sendText(exchange, 503, "could not generate maze " + seed + ": " + e.getMessage() + "\n");
+                return;
+            }
+            exchange.getResponseHeaders().set("X-Maze-Seed", Long.toString(seed));
+            exchange.getResponseHeaders().set("X-Maze-Width", Integer.toString(maze.width));
+            exchange.getResponseHeaders().set("X-Maze-Height", Integer.toString(maze.getHeight()));
+            if (format.equals("packed")) {
+                ByteBuffer packed = ByteBuffer.allocate(MazeCodec.encodedSize(maze.width, maze.getHeight()));
+                MazeCodec.encode(maze, packed);
+                send(exchange, 200, "application/octet-stream", packed.array());
+            } else {
+                sendText(exchange, 200, maze.toString());
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try {
+            String stats = String.format("entries %d%nhits %d%nmisses %d%ncoalesced %d%nevictions %d%nexpirations %d%n",
+                    cache.size(), cache.getHits(), cache.getMisses(), cache.getCoalesced(), cache.getEvictions(),
+                    cache.getExpirations());
+            sendText(exchange, 200, stats);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String body) throws IOException {
+        send(exchange, status, "text/plain; charset=us-ascii", body.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // Thrown out of the cache's generator so that a failed maze reaches every coalesced request but is
+    // never stored
+    private static final class GenerationFailedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        GenerationFailedException(String message) {
+            super(message);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int cacheEntries = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        Duration timeout = Duration.ofMillis(args.length > 2 ? Long.parseLong(args[2]) : 1_000);
+
+        useNoDelay();
+        MazeServer server = new MazeServer(new InetSocketAddress(port), cacheEntries, null, timeout);
+        server.start();
+        System.out.println("Serving mazes on http://localhost:" + server.getPort() + "/maze?seed=1");
+    }
+}
@@ -0,0 +1,295 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Endless supply of mazes generated ahead of time by a pool of background producers.
+// Finished mazes wait in a bounded buffer; when it is full the producers block until a consumer
+// takes one, so a slow consumer pauses generation instead of piling up mazes. Consumers can poll
+// the buffer directly, iterate/stream it, or subscribe to it as a Flow.Publisher that only hands
+// out as many mazes as were requested.
+//
+// Maze i of the stream is generated from MazeBatchGenerator.mazeSeed(seed, i), the same as maze i of
+// a batch, but mazes come out in completion order. If a producer fails, e.g. on a seed that runs out of
+// attempts, the stream closes: take() and the iterator then throw once the buffer is drained, and
+// subscribers get onError instead of onComplete.
+public class MazeStream implements Flow.Publisher<Maze>, Iterable<Maze>, AutoCloseable {
+
+    // How long blocked consumers sleep between checks for close()
+    private static final long CLOSE_CHECK_MILLIS = 100;
+
+    private final MazeConfig config;
+    private final long seed;
+    private final BlockingQueue<Maze> buffer;
+    private final AtomicLong nextIndex = new AtomicLong(); // a long, as the stream has no end
+    private final List<Thread> producers = new ArrayList<>();
+    private final ExecutorService delivery;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    public MazeStream(long seed, int parallelism, int bufferSize) {
+        this(seed, parallelism, bufferSize, GenerationListener.NONE);
+    }
+
+    public MazeStream(long seed, int parallelism, int bufferSize, GenerationListener listener) {
+        this(MazeConfig.DEFAULT, seed, parallelism, bufferSize, listener);
+    }
+
+    public MazeStream(MazeConfig config, long seed, int parallelism, int bufferSize, GenerationListener listener) {
+        if (parallelism < 1 || bufferSize < 1) {
+            throw new IllegalArgumentException("parallelism and bufferSize must be positive");
+        }
+        this.config = config;
+        this.seed = seed;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        this.delivery = Executors.newCachedThreadPool(daemon("maze-stream-delivery"));
+        ThreadFactory producerFactory = daemon("maze-stream-producer");
+        for (int i = 0; i < parallelism; i++) {
+            Thread producer = producerFactory.newThread(() -> produce(listener));
+            producers.add(producer);
+            producer.start();
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private void produce(GenerationListener listener) {
+        TetrisGridGenerator generator = new TetrisGridGenerator(config, seed);
+        generator.setListener(listener);
+        try {
+            while (!closed) {
+                buffer.put(MazeBatchGenerator.generateOne(generator, nextIndex.getAndIncrement(), seed));
+                for (Subscription subscription : subscriptions) {
+                    subscription.signal();
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed while waiting for room in the buffer
+        } catch (RuntimeException | Error e) {
+            failure.compareAndSet(null, e);
+            close();
+        }
+    }
+
+    // The producer failure that closed the stream, or null
+    public Throwable getFailure() {
+        return failure.get();
+    }
+
+    private IllegalStateException closedException() {
+        return new IllegalStateException(failure.get() == null ? "stream is closed" : "stream failed", failure.get());
+    }
+
+    // Next maze, waiting for one to be generated if the buffer is empty
+    public Maze take() throws InterruptedException {
+        while (true) {
+            Maze maze = buffer.poll(CLOSE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            if (maze != null) {
+                return maze;
+            }
+            if (closed) {
+                throw closedException();
+            }
+        }
+    }
+
+    // Next maze if one is ready, otherwise null
+    public Maze poll() {
+        return buffer.poll();
+    }
+
+    public Maze poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return buffer.poll(timeout, unit);
+    }
+
+    // Mazes that are ready to be taken without waiting
+    public int available() {
+        return buffer.size();
+    }
+
+    // Blocking iterator over the stream; hasNext() is false once the stream is closed and drained, and
+    // throws if it was closed by a failed producer
+    @Override
+    public Iterator<Maze> iterator() {
+        return new Iterator<>() {
+            private Maze next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null) {
+                    try {
+                        next = buffer.poll(CLOSE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                    if (next == null && closed) {
+                        if (failure.get() != null) {
+                            throw closedException();
+                        }
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Maze next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Maze maze = next;
+                next = null;
+                return maze;
+            }
+        };
+    }
+
+    public Stream<Maze> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(), Spliterator.NONNULL), false);
+    }
+
+    // Every subscriber draws its own mazes from the shared buffer, only as many as it requested
+    @Override
+    public void subscribe(Flow.Subscriber<? super Maze> subscriber) {
+        Subscription subscription = new Subscription(subscriber);
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+        if (closed) {
+            subscription.schedule();
+        }
+    }
+
+    // Stops the producers. Subscribers still get the buffered mazes they request, and are completed
+    // once the buffer is empty.
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread producer : producers) {
+            producer.interrupt();
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.schedule();
+        }
+        delivery.shutdown();
+    }
+
+    // Every signal to the subscriber is sent by the drain loop in run(), which only ever runs on one
+    // thread at a time: whoever moves pending from 0 runs it, and anyone who finds it running bumps
+    // pending so the loop goes round again. request(), cancel(), close() and the producers only change
+    // state and schedule a drain.
+    private final class Subscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super Maze> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger(); // drain requests, the delivery loop runs while > 0
+        private volatile boolean cancelled;
+        private volatile Throwable badRequest;
+        private boolean done; // only touched by the drain loop
+
+        Subscription(Flow.Subscriber<? super Maze> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                badRequest = new IllegalArgumentException("request must be positive: " + n);
+            } else {
+                demand.getAndAccumulate(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        // A maze was added to the buffer
+        void signal() {
+            if (demand.get() > 0) {
+                schedule();
+            }
+        }
+
+        void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                try {
+                    delivery.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // the stream is closed; this thread owns the loop now, so it can drain the rest itself
+                    run();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                try {
+                    drain();
+                } catch (RuntimeException e) {
+                    // the subscriber threw, which it must not; stop talking to it
+                    done = true;
+                    cancel();
+                }
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            while (!done) {
+                if (cancelled) {
+                    done = true;
+                    return;
+                }
+                if (badRequest != null) {
+                    terminate(badRequest);
+                    return;
+                }
+                if (demand.get() == 0) {
+                    if (closed && buffer.isEmpty()) {
+                        terminate(failure.get());
+                    }
+                    return;
+                }
+                Maze maze = buffer.poll();
+                if (maze == null) {
+                    if (closed) {
+                        terminate(failure.get());
+                    }
+                    // otherwise the producer that adds the next maze schedules this again
+                    return;
+                }
+                if (cancelled && buffer.offer(maze)) {
+                    // cancelled while taking it: leave it to the other consumers. If the buffer filled up
+                    // meanwhile it is delivered after all, which a subscriber has to accept after cancel().
+                    continue;
+                }
+                demand.decrementAndGet();
+                subscriber.onNext(maze);
+            }
+        }
+
+        private void terminate(Throwable error) {
+            done = true;
+            subscriptions.remove(this);
+            if (error == null) {
+                subscriber.onComplete();
+            } else {
+                subscriber.onError(error);
+            }
+        }
+    }
+}
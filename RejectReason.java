@@ -0,0 +1,9 @@
+// Why an attempt at generating a maze was thrown away
+public enum RejectReason {
+    TOP_RIGHT_CORNER,    // the top right cell opens up or to the right
+    BOTTOM_RIGHT_CORNER, // the bottom right cell opens down or to the right
+    STACKED_PIECES,      // two stacked or side-by-side 2-cell pieces touch the middle column
+    TALL_ROWS,           // chooseTallRows() found no row that can be raised
+    NARROW_COLS,         // chooseNarrowCols() found no column that can be shrunk
+    TUNNELS              // createTunnels() could not place the tunnels
+}
@@ -0,0 +1,277 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+// Remembers which attempt produced the maze of each seed, so a known maze is rebuilt with
+// TetrisGridGenerator.regenerateTiles() in one attempt instead of replaying every rejected one before it.
+// An entry is 16 bytes against about 400 for a standard maze packed by MazeCodec.
+//
+// The winning attempt depends on the grid size and the generator's stage retries, so a table only serves
+// generators with the config and stage retries it was built for. Every entry also keeps the hash of the
+// tiles it produced, so a table left over from a different version of the generator is noticed: the
+// maze is then generated in full and the entry replaced.
+//
+// File layout: a 32 byte header, then count entries sorted by seed, all big-endian.
+//
+//   offset  size
+//        0     8   magic "MZSKIPTB"
+//        8     4   version
+//       12     4   rows
+//       16     4   cols
+//       20     4   stage retries
+//       24     8   count
+//
+//   entry: seed (8), winning attempt (4), tiles hash (4)
+//
+// Usage: java SeedSkipTable [mazes] [ROWSxCOLS] [file]
+public class SeedSkipTable {
+
+    public static final int HEADER_SIZE = 32;
+    public static final int ENTRY_SIZE = 16;
+    public static final int VERSION = 1;
+
+    private static final long MAGIC = 0x4D5A534B49505442L; // "MZSKIPTB"
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final MazeConfig config;
+    private final int stageRetries;
+
+    // Open addressing with linear probing, guarded by this; EMPTY marks a free slot, and the seed
+    // Long.MIN_VALUE itself is kept aside in minValueEntry
+    private long[] seeds;
+    private int[] winningAttempts;
+    private int[] tileHashes;
+    private int size;
+    private long minValueEntry = -1; // attempt << 32 | hash, or -1
+
+    public SeedSkipTable(MazeConfig config, int stageRetries) {
+        this.config = config;
+        this.stageRetries = stageRetries;
+        allocate(16);
+    }
+
+    private void allocate(int capacity) {
+        seeds = new long[capacity];
+        Arrays.fill(seeds, EMPTY);
+        winningAttempts = new int[capacity];
+        tileHashes = new int[capacity];
+    }
+
+    public MazeConfig getConfig() {
+        return config;
+    }
+
+    public int getStageRetries() {
+        return stageRetries;
+    }
+
+    public synchronized int size() {
+        return size + (minValueEntry >= 0 ? 1 : 0);
+    }
+
+    // Winning attempt of the seed, or -1 if it isn't in the table
+    public synchronized int winningAttempt(long seed) {
+        if (seed == EMPTY) {
+            return minValueEntry < 0 ? -1 : (int) (minValueEntry >>> 32);
+        }
+        int slot = find(seed);
+        return seeds[slot] == seed ? winningAttempts[slot] : -1;
+    }
+
+    private synchronized int storedTileHash(long seed) {
+        if (seed == EMPTY) {
+            return (int) minValueEntry;
+        }
+        return tileHashes[find(seed)];
+    }
+
+    public synchronized void put(long seed, int winningAttempt, int tileHash) {
+        if (winningAttempt < 0) {
+            throw new IllegalArgumentException("winningAttempt must not be negative: " + winningAttempt);
+        }
+        if (seed == EMPTY) {
+            minValueEntry = (long) winningAttempt << 32 | (tileHash & 0xFFFFFFFFL);
+            return;
+        }
+        if ((size + 1) * 4L > seeds.length * 3L) {
+            grow();
+        }
+        int slot = find(seed);
+        if (seeds[slot] != seed) {
+            seeds[slot] = seed;
+            size++;
+        }
+        winningAttempts[slot] = winningAttempt;
+        tileHashes[slot] = tileHash;
+    }
+
+    // Slot holding the seed, or the empty slot where it would go
+    private int find(long seed) {
+        int mask = seeds.length - 1;
+        int slot = (int) (seed * 0x9E3779B97F4A7C15L >>> 32) & mask;
+        while (seeds[slot] != EMPTY && seeds[slot] != seed) {
+            slot = slot + 1 & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldSeeds = seeds;
+        int[] oldAttempts = winningAttempts;
+        int[] oldHashes = tileHashes;
+        allocate(oldSeeds.length * 2);
+        for (int i = 0; i < oldSeeds.length; i++) {
+            if (oldSeeds[i] != EMPTY) {
+                int slot = find(oldSeeds[i]);
+                seeds[slot] = oldSeeds[i];
+                winningAttempts[slot] = oldAttempts[i];
+                tileHashes[slot] = oldHashes[i];
+            }
+        }
+    }
+
+    // Generates the maze for the seed into the generator's tile buffer, in one attempt if the seed is in
+    // the table, and adds or corrects its entry otherwise. Returns false if no valid map was found.
+    public boolean generate(TetrisGridGenerator generator, long seed) {
+        if (!generator.getConfig().equals(config) || generator.getStageRetries() != stageRetries) {
+            throw new IllegalArgumentException("table is for " + config + " with " + stageRetries
+                    + " stage retries, generator is " + generator.getConfig() + " with "
+                    + generator.getStageRetries());
+        }
+        generator.setSeed(seed);
+        int hint = winningAttempt(seed);
+        if (hint >= 0) {
+            if (generator.regenerateTiles(hint) == GenerationOutcome.SUCCESS
+                    && generator.getLastWinningAttempt() == hint && tileHash(generator) == storedTileHash(seed)) {
+                return true;
+            }
+            // stale entry; rebuild the maze the usual way so it matches a generator without the table
+            generator.setSeed(seed);
+        }
+        generator.generateTiles();
+        if (!generator.isLastSuccessful()) {
+            return false;
+        }
+        put(seed, generator.getLastWinningAttempt(), tileHash(generator));
+        return true;
+    }
+
+    // The tile string's hashCode(), computed without building the string
+    static int tileHash(TetrisGridGenerator generator) {
+        int n = generator.getWidth() * generator.getHeight();
+        int hash = 0;
+        for (int i = 0; i < n; i++) {
+            hash = 31 * hash + generator.getMapTile(i);
+        }
+        return hash;
+    }
+
+    public synchronized void save(Path path) throws IOException {
+        int count = size();
+        long[] sorted = new long[size];
+        int[] order = new int[size];
+        for (int i = 0, n = 0; i < seeds.length; i++) {
+            if (seeds[i] != EMPTY) {
+                sorted[n++] = seeds[i];
+            }
+        }
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length; i++) {
+            order[i] = find(sorted[i]);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * ENTRY_SIZE).order(ByteOrder.BIG_ENDIAN);
+        buffer.putLong(MAGIC)
+                .putInt(VERSION)
+                .putInt(config.rows)
+                .putInt(config.cols)
+                .putInt(stageRetries)
+                .putLong(count);
+        if (minValueEntry >= 0) {
+            buffer.putLong(EMPTY).putInt((int) (minValueEntry >>> 32)).putInt((int) minValueEntry);
+        }
+        for (int slot : order) {
+            buffer.putLong(seeds[slot]).putInt(winningAttempts[slot]).putInt(tileHashes[slot]);
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    public static SeedSkipTable load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading until the header is complete or the file ends
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getLong() != MAGIC) {
+                throw new IOException("not a seed skip table: " + path);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported seed skip table version " + version + ": " + path);
+            }
+            MazeConfig config;
+            try {
+                config = new MazeConfig(header.getInt(), header.getInt());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("corrupt seed skip table: " + path, e);
+            }
+            int stageRetries = header.getInt();
+            long count = header.getLong();
+            if (stageRetries < 0 || count < 0 || count > Integer.MAX_VALUE / ENTRY_SIZE
+                    || channel.size() < HEADER_SIZE + count * ENTRY_SIZE) {
+                throw new IOException("corrupt seed skip table: " + path);
+            }
+
+            ByteBuffer entries = ByteBuffer.allocate((int) count * ENTRY_SIZE).order(ByteOrder.BIG_ENDIAN);
+            while (entries.hasRemaining() && channel.read(entries) >= 0) {
+                // keep reading until every entry is in
+            }
+            entries.flip();
+            SeedSkipTable table = new SeedSkipTable(config, stageRetries);
+            try {
+                while (entries.hasRemaining()) {
+                    table.put(entries.getLong(), entries.getInt(), entries.getInt());
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException("corrupt seed skip table: " + path, e);
+            }
+            return table;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        MazeConfig config = args.length > 1 ? MazeConfig.parse(args[1]) : MazeConfig.DEFAULT;
+        Path path = Path.of(args.length > 2 ? args[2] : "seeds.skip");
+
+        TetrisGridGenerator generator = new TetrisGridGenerator(config, 0);
+        SeedSkipTable table = new SeedSkipTable(config, generator.getStageRetries());
+        for (int round = 0; round < 2; round++) {
+            // the first round fills the table, the second rebuilds every maze from it
+            long start = System.nanoTime();
+            long attempts = generator.getAttempts();
+            for (int i = 0; i < count; i++) {
+                table.generate(generator, MazeRandom.derive(0, i));
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf("%s: %d mazes, %.2f attempts/maze, %.1f us/maze%n",
+                    round == 0 ? "generate" : "from table", count,
+                    (double) (generator.getAttempts() - attempts) / count, nanos / 1e3 / count);
+        }
+        table.save(path);
+        SeedSkipTable loaded = load(path);
+        System.out.printf("saved %d entries, %d bytes, to %s; reloaded %d entries%n", table.size(),
+                HEADER_SIZE + (long) table.size() * ENTRY_SIZE, path, loaded.size());
+    }
+}
@@ -0,0 +1,228 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Generates one maze at a time with low latency by running the attempts of its seed on several threads.
+// TetrisGridGenerator tries the sub-seeds MazeRandom.derive(seed, 0), derive(seed, 1), ... in turn and keeps
+// the first that gives a valid map, so a maze costs the sum of every rejected attempt before it. Here
+// each of the parallelism lanes owns a generator and claims the next attempt index from a shared
+// counter. A lane stops at its first valid map, and every lane stops once the indices it would claim
+// are past the lowest valid one found, which is the maze. That is the attempt a single generator would
+// have stopped at, so the maze is the same whatever the parallelism, and equal to generateTiles()'s.
+//
+// The caller's thread runs one lane and a fixed pool the others. Calls are serialized: this is for the
+// latency of a single request, and a batch is generated faster by MazeBatchGenerator.
+//
+// Its main() measures single-maze latency for each parallelism up to maxParallelism.
+//
+// Usage: java SpeculativeMazeGenerator [mazes] [ROWSxCOLS] [maxParallelism]
+public class SpeculativeMazeGenerator implements AutoCloseable {
+
+    private final MazeConfig config;
+    private final int maxAttempts;
+    private final Lane[] lanes;
+    private final ExecutorService pool;
+
+    // Next attempt index to claim, and the lowest index that produced a valid map so far
+    private final AtomicInteger nextAttempt = new AtomicInteger();
+    private final AtomicInteger bestAttempt = new AtomicInteger();
+
+    public SpeculativeMazeGenerator(MazeConfig config, int parallelism) {
+        this(config, parallelism, TetrisGridGenerator.MAX_ATTEMPTS);
+    }
+
+    public SpeculativeMazeGenerator(MazeConfig config, int parallelism, int maxAttempts) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        }
+        this.config = config;
+        this.maxAttempts = maxAttempts;
+        lanes = new Lane[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            lanes[i] = new Lane(new TetrisGridGenerator(config, 0));
+        }
+        pool = parallelism == 1 ? null : Executors.newFixedThreadPool(parallelism - 1, r -> {
+            Thread thread = new Thread(r, "speculative-maze");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public MazeConfig getConfig() {
+        return config;
+    }
+
+    public int getParallelism() {
+        return lanes.length;
+    }
+
+    // Every lane's generator must use the same stage retries, or the lanes would disagree on which
+    // attempts are valid
+    public synchronized void setStageRetries(int stageRetries) {
+        for (Lane lane : lanes) {
+            lane.generator.setStageRetries(stageRetries);
+        }
+    }
+
+    // The same holds for the layout table
+    public synchronized void setLayoutTable(LayoutTable layouts) {
+        for (Lane lane : lanes) {
+            lane.generator.setLayoutTable(layouts);
+        }
+    }
+
+    // and for the params
+    public synchronized void setParams(GenerationParams params) {
+        for (Lane lane : lanes) {
+            lane.generator.setParams(params);
+        }
+    }
+
+    // The result's attempts are all the attempts the lanes ran, including those after the winning one
+    // that were already under way when it was found
+    public synchronized GenerationResult generate(long seed) {
+        long start = System.nanoTime();
+        nextAttempt.set(0);
+        bestAttempt.set(Integer.MAX_VALUE);
+        for (Lane lane : lanes) {
+            lane.generator.setSeed(seed);
+        }
+
+        List<Future<?>> running = new ArrayList<>(lanes.length - 1);
+        for (int i = 1; i < lanes.length; i++) {
+            running.add(pool.submit(lanes[i]));
+        }
+        Throwable failure = null;
+        try {
+            lanes[0].run();
+        } catch (RuntimeException e) {
+            failure = e;
+            bestAttempt.set(-1);
+        }
+        // wait for every lane even when interrupted, so none is still running into the next call; setting
+        // bestAttempt to -1 stops each of them within an attempt
+        boolean interrupted = false;
+        for (Future<?> future : running) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    bestAttempt.set(-1);
+                } catch (ExecutionException e) {
+                    failure = e.getCause();
+                    bestAttempt.set(-1);
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while generating maze " + seed);
+        }
+        if (failure != null) {
+            throw new IllegalStateException("failed to generate maze " + seed, failure);
+        }
+
+        // the lane holding the lowest valid attempt, or when there is none the one that ran the last
+        // attempt, whose layout a single generator would also have been left with
+        int best = bestAttempt.get();
+        boolean success = best != Integer.MAX_VALUE;
+        int attempt = success ? best : maxAttempts - 1;
+        int attempts = 0;
+        Lane winner = null;
+        for (Lane lane : lanes) {
+            attempts += lane.attempts;
+            if (lane.lastAttempt == attempt) {
+                winner = lane;
+            }
+        }
+        GenerationOutcome outcome = success ? GenerationOutcome.SUCCESS : GenerationOutcome.ATTEMPTS_EXHAUSTED;
+        TetrisGridGenerator generator = winner.generator;
+        generator.finishTiles(outcome, attempt, attempts);
+        Maze maze = new Maze(0, seed, generator.getTileString(), generator.getWidth());
+        return new GenerationResult(outcome, maze, attempts, System.nanoTime() - start);
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private final class Lane implements Runnable {
+        final TetrisGridGenerator generator;
+        int attempts;
+        int lastAttempt;
+
+        Lane(TetrisGridGenerator generator) {
+            this.generator = generator;
+        }
+
+        @Override
+        public void run() {
+            attempts = 0;
+            lastAttempt = -1;
+            while (true) {
+                // indices are claimed in increasing order, so once one is past the best valid attempt
+                // every later claim is too
+                int attempt = nextAttempt.getAndIncrement();
+                if (attempt >= maxAttempts || attempt > bestAttempt.get()) {
+                    return;
+                }
+                attempts++;
+                lastAttempt = attempt;
+                if (generator.runAttempt(attempt)) {
+                    bestAttempt.accumulateAndGet(attempt, Math::min);
+                    return;
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        MazeConfig config = args.length > 1 ? MazeConfig.parse(args[1]) : MazeConfig.DEFAULT;
+        int maxParallelism = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        // the mazes every parallelism must reproduce
+        TetrisGridGenerator reference = new TetrisGridGenerator(config, 0);
+        int[] hashes = new int[count];
+        for (int i = 0; i < count; i++) {
+            reference.setSeed(MazeRandom.derive(0, i));
+            reference.generateTiles();
+            hashes[i] = SeedSkipTable.tileHash(reference);
+        }
+
+        System.out.printf("%d mazes, %s, single-maze latency (us)%n", count, config);
+        // powers of two, then maxParallelism itself
+        for (int k = 1; k <= maxParallelism; k = k < maxParallelism && k * 2 > maxParallelism ? maxParallelism : k * 2) {
+            try (SpeculativeMazeGenerator generator = new SpeculativeMazeGenerator(config, k)) {
+                for (int i = 0; i < count / 4; i++) {
+                    generator.generate(MazeRandom.derive(1, i)); // warm-up
+                }
+                PercentileHistogram latency = new PercentileHistogram();
+                long attempts = 0;
+                int mismatches = 0;
+                for (int i = 0; i < count; i++) {
+                    GenerationResult result = generator.generate(MazeRandom.derive(0, i));
+                    latency.record(result.nanos);
+                    attempts += result.attempts;
+                    if (result.maze.tiles.hashCode() != hashes[i]) {
+                        mismatches++;
+                    }
+                }
+                System.out.printf("parallelism %2d  mean %7.1f  p50 %7.1f  p90 %7.1f  p99 %7.1f  max %8.1f"
+                                + "  %.1f attempts/maze  %d mismatches%n",
+                        k, latency.getMean() / 1e3, latency.getValueAtPercentile(50) / 1e3,
+                        latency.getValueAtPercentile(90) / 1e3, latency.getValueAtPercentile(99) / 1e3,
+                        latency.getMax() / 1e3, (double) attempts / count, mismatches);
+            }
+        }
+    }
+}
@@ -1,167 +1,522 @@
+import java.time.Duration;
 import java.util.*;
 
 public class TetrisGridGenerator {
-    static int rows = 9;
-    static int cols = 5;
-    static Cell[] cells = new Cell[rows * cols];
-    private static final int[] narrowCols = new int[rows * cols];
-    private static final int[] tallRows = new int[rows * cols];
+    private final MazeConfig config;
+    private final int rows;
+    private final int cols;
+
+    // All generation state is owned by the instance, so separate generators can run on separate threads.
+
+    // The cell grid is stored as one primitive array per field, indexed by x + y * cols,
+    // so reset() only has to refill the arrays and an attempt allocates no cell objects.
+    private final byte[] connect;        // bit (1 << dir) is set when the cell connects in that direction
+    private final long[] connectBoards;  // the same connections as bitboards, one long per row at [dir * rows + y], bit x
+    private final int[] next;            // neighbour index at [cellIdx * 4 + dir], -1 at the edge
+    private final int[] no;              // order the cell was filled in, -1 if unset
+    private final int[] group;           // piece the cell was filled as (or joined by a square), -1 if unset; see findGroup()
+    private final int[] groupParent;     // union-find over piece ids, merged pieces share a root
+    private final byte[] groupRank;
+    private final int[] flags;           // FILLED, *_CANDIDATE, SHRINK_WIDTH, ... bits
+    private final int[] singleDeadEndDir;
+    private final int[] finalX;
+    private final int[] finalY;
+    private final int[] finalW;
+    private final int[] finalH;
+
+    private final int[] narrowCols;
+    private final int[] tallRows;
+
+    // Frontier of empty cells for gen(): a bitmask of the empty rows of each column, rowWords longs per
+    // column at [x * rowWords + y / 64], the number of empty cells per column, and the leftmost column
+    // that still has one (cols once the grid is full). Kept up to date as cells are filled.
+    private final int rowWords;
+    private final long[] emptyRows;
+    private final int[] emptyCount;
+    private int leftMostEmptyCol;
+
+    private final int subrows;
+    private final int subcols;
+
+    private final int midcols;
+    private final int fullcols;
+
+    private final char[] tiles;     // each is a character indicating a wall(|), path(.), or blank(_).
+    private final int[] tileCells;  // index of the cell covering each tile at [x + y * subcols], -1 if none
+    private final int[] cellGroups; // findGroup() of every cell while renderTiles() runs
+
+    // Path layer of the right half of the map while renderTiles() builds it: tileWords longs per tile row
+    // at [y * tileWords + h / 64], bit h set when tile column midcols + h is a path. The walls are derived
+    // from it a word at a time and the left half is its bit-reverse, so only the right half is ever set.
+    private final int tileWords;
+    private final long lastTileWordMask;
+    private final long[] pathTiles;
+    private final long[] nearPathTiles;  // scratch: path tiles widened by one column each way
+    private final long[] wallTiles;      // scratch: one row of walls
+    private final long[] mirroredPath;   // scratch: one row of each layer, bit-reversed
+    private final long[] mirroredWall;
+
+    static final int UP = 0;
+    static final int RIGHT = 1;
+    static final int DOWN = 2;
+    static final int LEFT = 3;
+
+    // Bitboard masks over the columns of one row
+    private final long lastCol;
+    private final long notLastCol;
+
+    // Cell flags
+    static final int FILLED = 1;
+    static final int SHRINK_WIDTH_CANDIDATE = 1 << 1;
+    static final int RAISE_HEIGHT_CANDIDATE = 1 << 2;
+    static final int SHRINK_WIDTH = 1 << 3;
+    static final int RAISE_HEIGHT = 1 << 4;
+    static final int EDGE_TUNNEL_CANDIDATE = 1 << 5;
+    static final int VOID_TUNNEL_CANDIDATE = 1 << 6;
+    static final int SINGLE_DEAD_END_CANDIDATE = 1 << 7;
+    static final int DOUBLE_DEAD_END_CANDIDATE = 1 << 8;
+    static final int TOP_TUNNEL = 1 << 9;
+    static final int JOIN_CANDIDATE = 1 << 10;
+
+    // Scratch space reused by every attempt. The narrow column / tall row searches recurse at most
+    // rows (or cols) deep with at most cols (or rows) candidates per level.
+    private final int[] candidateStack;
+    private int candidateTop;
+    private final IntList singleDeadEndCells;
+    private final IntList topSingleDeadEndCells;
+    private final IntList botSingleDeadEndCells;
+    private final IntList voidTunnelCells;
+    private final IntList topVoidTunnelCells;
+    private final IntList botVoidTunnelCells;
+    private final IntList edgeTunnelCells;
+    private final IntList topEdgeTunnelCells;
+    private final IntList botEdgeTunnelCells;
+    private final IntList doubleDeadEndCells;
+
+    // Copy of the state joinWalls() and createTunnels() change, taken after setUpScaleCoords() so a layout
+    // that passed isDesirable() can be joined and tunnelled again without running gen() again
+    private final byte[] scaledConnect;
+    private final long[] scaledConnectBoards;
+    private final int[] scaledFlags;
+    private final int[] scaledGroupParent;
+    private final byte[] scaledGroupRank;
+    private int stageRetries = DEFAULT_STAGE_RETRIES;
+    private LayoutTable layouts;
+    private GenerationParams params = GenerationParams.DEFAULT;
+
+    private final MazeRandom random;
+    private long seed;
+
+    private GenerationListener listener = GenerationListener.NONE;
+
+    // Why the last attempt was rejected, and running totals over every attempt of this generator
+    private RejectReason rejection;
+    private int lastAttempts;
+    private int lastWinningAttempt = -1;
+    private boolean attemptGrown;   // whether the last runAttempt() got through gen()
+    private boolean attemptScaled;  // and whether it got as far as setUpScaleCoords()
+    private GenerationOutcome lastOutcome;
+    private long attempts;
+    private final long[] earlyRejections = new long[RejectReason.values().length]; // cut short inside gen()
+    private final long[] rejections = new long[RejectReason.values().length];      // rejected after gen() finished
+    private long stageRetryCount;
+    private long successfulStageRetries;
 
-    private static final int subrows = rows * 3 + 1 + 3;
-    private static final int subcols = cols * 3 - 1 + 2;
+    // Function to generate a random integer between min and max (inclusive)
+    public int getRandomInt(int min, int max) {
+        return random.nextInt(max - min + 1) + min;
+    }
 
-    private static final int midcols = subcols - 2;
-    private static final int fullcols = (subcols - 2) * 2;
+    TetrisGridGenerator(){
+        this(MazeConfig.DEFAULT);
+    }
 
-    private static final char[] tiles = new char[subrows * fullcols]; // each is a character indicating a wall(|), path(.), or blank(_).
-    private static final Cell[] tileCells = new Cell[subrows * subcols];
+    TetrisGridGenerator(MazeConfig config){
+        this(config, new MazeRandom(0));
+        setSeed(System.nanoTime() ^ Thread.currentThread().getId());
+    }
 
-    static int UP = 0;
-    static int RIGHT = 1;
-    static int DOWN = 2;
-    static int LEFT = 3;
+    TetrisGridGenerator(long seed){
+        this(MazeConfig.DEFAULT, seed);
+    }
 
-    private static final Random random = new Random();
+    TetrisGridGenerator(MazeConfig config, long seed){
+        this(config, new MazeRandom(0));
+        setSeed(seed);
+    }
 
-    // Function to generate a random integer between min and max (inclusive)
-    public static int getRandomInt(int min, int max) {
-        return random.nextInt(max - min + 1) + min;
+    TetrisGridGenerator(MazeRandom random){
+        this(MazeConfig.DEFAULT, random);
     }
 
-    TetrisGridGenerator(){
-        cells = new Cell[rows * cols];
-        for (int x = 0; x < cols; x++) {
-            for (int y = 0; y < rows; y++) {
-                cells[x+y*cols] = new Cell(x, y);
-            }
-        }
-    }
-
-    public static class Cell {
-        // Fields
-        public int x;
-        public int y;
-        public boolean filled;
-        public Boolean[] connect;
-        public Integer[] next;
-        public Integer no;
-        public Integer group;
-        public boolean isShrinkWidthCandidate = false;
-        public boolean isRaiseHeightCandidate = false;
-        public boolean shrinkWidth = false;
-        public boolean raiseHeight = false;
-        public int final_x = 0;
-        public int final_y = 0;
-        public int final_w = 0;
-        public int final_h = 0;
-        public boolean isEdgeTunnelCandidate = false;
-        public boolean isVoidTunnelCandidate = false;
-        public boolean isSingleDeadEndCandidate = false;
-        public int singleDeadEndDir;
-        public boolean isDoubleDeadEndCandidate;
-        public boolean topTunnel;
-        public boolean isJoinCandidate;
-
-
-        // Constructor
-        public Cell(int x, int y) {
-            this.x = x;
-            this.y = y;
-            this.filled = false;
-            this.connect = new Boolean[] {false, false, false, false}; // Assuming 4 directions: LEFT, RIGHT, UP, DOWN
-            this.next = new Integer[4];
-            for (int i = 0; i < 4; i++) {
-                connect[i] = false;
-                next[i] = null;
-            }
-            this.no = null;
-            this.group = null;
-        }
-
-        // toString method to represent Cell object as a string (Optional, for debugging purposes)
-        @Override
-        public String toString() {
-            return "Cell{" +
-                    "x=" + x +
-                    ", y=" + y +
-                    ", filled=" + filled +
-                    ", connect=" + Arrays.toString(connect) +
-                    ", no=" + no +
-                    ", group=" + group +
-                    ", next=" + Arrays.toString(next) +
-                    ", final_x=" + final_x +
-                    ", final_y=" + final_y +
-                    ", final_w=" + final_w +
-                    ", final_h=" + final_h +
-                    '}';
-        }
-    }
-
-    public static void reset() {
-        for (int i = 0; i < rows * cols; i++) {
+    // Runs the pipeline against the given random, which is reseeded from the maze seed at every attempt.
+    // Every buffer is sized from the config once, here.
+    TetrisGridGenerator(MazeConfig config, MazeRandom random){
+        this.config = config;
+        this.random = random;
+        rows = config.rows;
+        cols = config.cols;
+        subrows = config.subrows;
+        subcols = config.subcols;
+        midcols = config.midcols;
+        fullcols = config.fullcols;
+
+        int cells = rows * cols;
+        connect = new byte[cells];
+        connectBoards = new long[4 * rows];
+        next = new int[cells * 4];
+        no = new int[cells];
+        group = new int[cells];
+        groupParent = new int[cells];
+        groupRank = new byte[cells];
+        flags = new int[cells];
+        singleDeadEndDir = new int[cells];
+        finalX = new int[cells];
+        finalY = new int[cells];
+        finalW = new int[cells];
+        finalH = new int[cells];
+        narrowCols = new int[cells];
+        tallRows = new int[cells];
+        rowWords = (rows + 63) >>> 6;
+        emptyRows = new long[cols * rowWords];
+        emptyCount = new int[cols];
+        tiles = new char[subrows * fullcols];
+        tileCells = new int[subrows * subcols];
+        cellGroups = new int[cells];
+        scaledConnect = new byte[cells];
+        scaledConnectBoards = new long[4 * rows];
+        scaledFlags = new int[cells];
+        scaledGroupParent = new int[cells];
+        scaledGroupRank = new byte[cells];
+        tileWords = (midcols + 63) >>> 6;
+        lastTileWordMask = -1L >>> (tileWords * 64 - midcols);
+        pathTiles = new long[subrows * tileWords];
+        nearPathTiles = new long[subrows * tileWords];
+        wallTiles = new long[tileWords];
+        mirroredPath = new long[tileWords];
+        mirroredWall = new long[tileWords];
+
+        long allCols = cols == 64 ? -1L : (1L << cols) - 1;
+        lastCol = 1L << (cols - 1);
+        notLastCol = allCols & ~lastCol;
+
+        candidateStack = new int[cells];
+        singleDeadEndCells = new IntList(rows);
+        topSingleDeadEndCells = new IntList(rows);
+        botSingleDeadEndCells = new IntList(rows);
+        voidTunnelCells = new IntList(rows);
+        topVoidTunnelCells = new IntList(rows);
+        botVoidTunnelCells = new IntList(rows);
+        edgeTunnelCells = new IntList(rows);
+        topEdgeTunnelCells = new IntList(rows);
+        botEdgeTunnelCells = new IntList(rows);
+        doubleDeadEndCells = new IntList(rows);
+
+        for (int i = 0; i < cells; i++) {
             int x = i % cols;
             int y = i / cols;
-            cells[i] = new Cell(x, y);
+            next[i * 4 + UP] = y > 0 ? i - cols : -1;
+            next[i * 4 + RIGHT] = x < cols - 1 ? i + 1 : -1;
+            next[i * 4 + DOWN] = y < rows - 1 ? i + cols : -1;
+            next[i * 4 + LEFT] = x > 0 ? i - 1 : -1;
         }
+        reset();
+    }
 
-        for (int i = 0; i < rows * cols; i++) {
-            if (cells[i].x > 0)
-                cells[i].next[LEFT] = i - 1;
-            if (cells[i].x < cols - 1)
-                cells[i].next[RIGHT] = i + 1;
-            if (cells[i].y > 0)
-                cells[i].next[UP] = i - cols;
-            if (cells[i].y < rows - 1)
-                cells[i].next[DOWN] = i + cols;
+    public MazeConfig getConfig() {
+        return config;
+    }
+
+    // Blank tile rows added above and below the map
+    static final int TOP_PADDING_ROWS = 3;
+    static final int BOTTOM_PADDING_ROWS = 2;
+
+    // Width of the tile string returned by getTiles()
+    public int getWidth() {
+        return fullcols;
+    }
+
+    // Seed of the next maze; the same seed always produces the same tiles
+    public void setSeed(long seed) {
+        this.seed = seed;
+        random.setSeed(seed);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setListener(GenerationListener listener) {
+        this.listener = listener == null ? GenerationListener.NONE : listener;
+    }
+
+    public GenerationListener getListener() {
+        return listener;
+    }
+
+    // Number of attempts the last generate() call made
+    public int getLastAttempts() {
+        return lastAttempts;
+    }
+
+    // Whether the last generate() call found a valid map within its budget
+    public boolean isLastSuccessful() {
+        return lastOutcome == GenerationOutcome.SUCCESS;
+    }
+
+    public GenerationOutcome getLastOutcome() {
+        return lastOutcome;
+    }
+
+    // Index of the attempt (the sub-seed MazeRandom.derive(seed, index)) that produced the last map, or -1
+    // if the last call failed; regenerateTiles() takes it back as a hint
+    public int getLastWinningAttempt() {
+        return lastWinningAttempt;
+    }
+
+    // Reason the last attempt was rejected, or null if it was accepted
+    public RejectReason getRejection() {
+        return rejection;
+    }
+
+    public long getAttempts() {
+        return attempts;
+    }
+
+    // Attempts abandoned inside gen() because a committed piece already broke the rule
+    public long getEarlyRejections(RejectReason reason) {
+        return earlyRejections[reason.ordinal()];
+    }
+
+    // Attempts rejected by isDesirable() or createTunnels() after a complete gen()
+    public long getRejections(RejectReason reason) {
+        return rejections[reason.ordinal()];
+    }
+
+    // Times joinWalls() and createTunnels() were run again on a layout from its snapshot
+    public long getStageRetryCount() {
+        return stageRetryCount;
+    }
+
+    // Stage retries that produced a valid map; each one saved the attempts a new layout would have taken
+    public long getSuccessfulStageRetries() {
+        return successfulStageRetries;
+    }
+
+    public void resetCounters() {
+        attempts = 0;
+        Arrays.fill(earlyRejections, 0);
+        Arrays.fill(rejections, 0);
+        stageRetryCount = 0;
+        successfulStageRetries = 0;
+    }
+
+    // How many times a layout that passed isDesirable() but failed createTunnels() is joined and tunnelled
+    // again, with fresh randomness, before the attempt is given up; 0 restarts from gen() straight away
+    public void setStageRetries(int stageRetries) {
+        if (stageRetries < 0) {
+            throw new IllegalArgumentException("stageRetries must not be negative: " + stageRetries);
+        }
+        this.stageRetries = stageRetries;
+    }
+
+    public int getStageRetries() {
+        return stageRetries;
+    }
+
+    // Probabilities and limits gen() and joinWalls() work with; null goes back to the defaults. A seed
+    // skip table built with other params doesn't match mazes generated with these, and a layout table
+    // built with others is refused: clear it before changing the params.
+    public void setParams(GenerationParams params) {
+        GenerationParams p = params == null ? GenerationParams.DEFAULT : params;
+        checkLayoutTable(layouts, p);
+        this.params = p;
+    }
+
+    public GenerationParams getParams() {
+        return params;
+    }
+
+    // Draws the layout of every attempt from the table instead of growing it with gen() and checking it
+    // with isDesirable(); null goes back to growing them. Layouts then follow the table's distribution,
+    // which approaches gen()'s as the table is sampled longer, but a seed no longer gives the same maze
+    // as it does without the table. The table must have been sampled with this config and params.
+    public void setLayoutTable(LayoutTable layouts) {
+        checkLayoutTable(layouts, params);
+        this.layouts = layouts;
+    }
+
+    private void checkLayoutTable(LayoutTable layouts, GenerationParams params) {
+        if (layouts == null) {
+            return;
+        }
+        if (!layouts.getConfig().equals(config)) {
+            throw new IllegalArgumentException("layout table is for " + layouts.getConfig() + ", generator is " + config);
+        }
+        if (!layouts.getParams().equals(params)) {
+            throw new IllegalArgumentException("layout table was sampled with params " + layouts.getParams()
+                    + ", generator has " + params);
+        }
+    }
+
+    public LayoutTable getLayoutTable() {
+        return layouts;
+    }
+
+    // Growable list of ints that keeps its storage between attempts
+    static class IntList {
+        private int[] items;
+        private int size;
+
+        IntList(int capacity) {
+            items = new int[capacity];
+        }
+
+        void add(int v) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2 + 1);
+            }
+            items[size++] = v;
+        }
+
+        int get(int i) {
+            return items[i];
+        }
+
+        int remove(int i) {
+            int v = items[i];
+            System.arraycopy(items, i + 1, items, i, size - i - 1);
+            size--;
+            return v;
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+
+    int cellX(int cellIdx) {
+        return cellIdx % cols;
+    }
+
+    int cellY(int cellIdx) {
+        return cellIdx / cols;
+    }
+
+    int next(int cellIdx, int dir) {
+        return next[cellIdx * 4 + dir];
+    }
+
+    boolean isConnected(int cellIdx, int dir) {
+        return (connect[cellIdx] & (1 << dir)) != 0;
+    }
+
+    void setConnected(int cellIdx, int dir) {
+        connect[cellIdx] |= (byte) (1 << dir);
+        connectBoards[dir * rows + cellY(cellIdx)] |= 1L << cellX(cellIdx);
+    }
+
+    boolean hasFlag(int cellIdx, int flag) {
+        return (flags[cellIdx] & flag) != 0;
+    }
+
+    void setFlag(int cellIdx, int flag) {
+        flags[cellIdx] |= flag;
+    }
+
+    boolean isFilled(int cellIdx) {
+        return hasFlag(cellIdx, FILLED);
+    }
+
+    public void reset() {
+        Arrays.fill(connect, (byte) 0);
+        Arrays.fill(connectBoards, 0);
+        Arrays.fill(no, -1);
+        Arrays.fill(group, -1);
+        Arrays.fill(flags, 0);
+        Arrays.fill(singleDeadEndDir, 0);
+        Arrays.fill(finalX, 0);
+        Arrays.fill(finalY, 0);
+        Arrays.fill(finalW, 0);
+        Arrays.fill(finalH, 0);
+        Arrays.fill(narrowCols, 0);
+        Arrays.fill(tallRows, 0);
+
+        for (int x = 0; x < cols; x++) {
+            for (int w = 0; w < rowWords; w++) {
+                int bits = Math.min(64, rows - (w << 6));
+                emptyRows[x * rowWords + w] = bits == 64 ? -1L : (1L << bits) - 1;
+            }
+            emptyCount[x] = rows;
         }
+        leftMostEmptyCol = 0;
 
-        int i = 3 * cols;
-        cells[i].filled = true;
-        cells[i].connect[LEFT] = cells[i].connect[RIGHT] = cells[i].connect[DOWN] = true;
+        int i = config.ghostRow * cols;
+        markFilled(i);
+        setConnected(i, LEFT);
+        setConnected(i, RIGHT);
+        setConnected(i, DOWN);
 
         i++;
-        cells[i].filled = true;
-        cells[i].connect[LEFT] = cells[i].connect[DOWN] = true;
+        markFilled(i);
+        setConnected(i, LEFT);
+        setConnected(i, DOWN);
 
         i += cols - 1;
-        cells[i].filled = true;
-        cells[i].connect[LEFT] = cells[i].connect[UP] = cells[i].connect[RIGHT] = true;
+        markFilled(i);
+        setConnected(i, LEFT);
+        setConnected(i, UP);
+        setConnected(i, RIGHT);
 
         i++;
-        cells[i].filled = true;
-        cells[i].connect[UP] = cells[i].connect[LEFT] = true;
+        markFilled(i);
+        setConnected(i, UP);
+        setConnected(i, LEFT);
     }
 
-    public static List<Integer> getLeftMostEmptyCells() {
+    public List<Integer> getLeftMostEmptyCells() {
         List<Integer> leftCells = new ArrayList<>();
-        for (int x = 0; x < cols; x++) {
-            for (int y = 0; y < rows; y++) {
-                int idx = x + y * cols;
-                if (!cells[idx].filled) {
-                    leftCells.add(idx);
-                }
-            }
-            if (!leftCells.isEmpty()) {
-                break;
-            }
+        for (int n = 0; leftMostEmptyCol < cols && n < emptyCount[leftMostEmptyCol]; n++) {
+            leftCells.add(leftMostEmptyCol + nthEmptyRow(leftMostEmptyCol, n) * cols);
         }
         return leftCells;
     }
 
-    public static boolean isOpenCell(int cellIdx, int i) {
+    // Row of the n-th (0-based, top to bottom) empty cell of column x
+    private int nthEmptyRow(int x, int n) {
+        for (int w = x * rowWords; ; w++) {
+            long word = emptyRows[w];
+            int count = Long.bitCount(word);
+            if (n < count) {
+                return ((w - x * rowWords) << 6) + nthSetBit(word, n);
+            }
+            n -= count;
+        }
+    }
+
+    public boolean isOpenCell(int cellIdx, int i) {
         return isOpenCell(cellIdx, i, -1, -1);
     }
 
-    public static boolean isOpenCell(int cellIdx, int i, int prevDir, int size) {
-        if (cellIdx < 0 || cellIdx >= cells.length) {
+    public boolean isOpenCell(int cellIdx, int i, int prevDir, int size) {
+        if (cellIdx < 0 || cellIdx >= rows * cols) {
             return false;
         }
 
-        Cell cell = cells[cellIdx];
+        int x = cellX(cellIdx);
+        int y = cellY(cellIdx);
 
         // prevent wall from going through starting position
-        if ((cell.y == 6 && cell.x == 0 && i == DOWN) ||
-                (cell.y == 7 && cell.x == 0 && i == UP)) {
+        if ((y == config.startRow && x == 0 && i == DOWN) ||
+                (y == config.startRow + 1 && x == 0 && i == UP)) {
             return false;
         }
 
@@ -171,78 +526,72 @@ public class TetrisGridGenerator {
         }
 
         // examine an adjacent empty cell
-        if (cell.next[i] != null && !cells[cell.next[i]].filled) {
+        int n = next(cellIdx, i);
+        if (n != -1 && !isFilled(n)) {
             // only open if the cell to the left of it is filled
-            return cells[cell.next[i]].next[LEFT] == null || cells[cells[cell.next[i]].next[LEFT]].filled;
+            return next(n, LEFT) == -1 || isFilled(next(n, LEFT));
         }
         return false;
     }
 
-    public static class OpenCellsResult {
-        List<Integer> openCells;
-        int numOpenCells;
-
-        public OpenCellsResult(List<Integer> openCells, int numOpenCells) {
-            this.openCells = openCells;
-            this.numOpenCells = numOpenCells;
-        }
-    }
-
-    public static OpenCellsResult getOpenCells(int cellIdx, int prevDir, int size) {
-        List<Integer> openCells = new ArrayList<>();
-        int numOpenCells = 0;
+    // Directions around the cell that the piece can grow into, as a mask with bit (1 << dir) set
+    public int getOpenCells(int cellIdx, int prevDir, int size) {
+        int openCells = 0;
         for (int i = 0; i < 4; i++) {
             if (isOpenCell(cellIdx, i, prevDir, size)) {
-                openCells.add(i);
-                numOpenCells++;
+                openCells |= 1 << i;
             }
         }
-        return new OpenCellsResult(openCells, numOpenCells);
+        return openCells;
     }
 
-    public static void connectCell(int cellIdx, int dir) {
-        cells[cellIdx].connect[dir] = true;
-        if (cells[cellIdx].next[dir] != null) {
-            cells[cells[cellIdx].next[dir]].connect[(dir + 2) % 4] = true;
+    public void connectCell(int cellIdx, int dir) {
+        setConnected(cellIdx, dir);
+        if (next(cellIdx, dir) != -1) {
+            setConnected(next(cellIdx, dir), (dir + 2) % 4);
         }
-        if (cells[cellIdx].x == 0 && dir == RIGHT) {
-            cells[cellIdx].connect[LEFT] = true;
+        if (cellX(cellIdx) == 0 && dir == RIGHT) {
+            setConnected(cellIdx, LEFT);
         }
     }
 
-    public static void setResizeCandidates() {
+    public void setResizeCandidates() {
         for (int i = 0; i < rows * cols; i++) {
+            int x = cellX(i);
+            int y = cellY(i);
+
             // determine if it has flexible height
 
             // |_|
             // or
             //  _
             // | |
-            if ((cells[i].x == 0 || !cells[i].connect[LEFT]) &&
-                    (cells[i].x == cols - 1 || !cells[i].connect[RIGHT]) &&
-                    cells[i].connect[UP] != cells[i].connect[DOWN]) {
-                cells[i].isRaiseHeightCandidate = true;
+            if ((x == 0 || !isConnected(i, LEFT)) &&
+                    (x == cols - 1 || !isConnected(i, RIGHT)) &&
+                    isConnected(i, UP) != isConnected(i, DOWN)) {
+                setFlag(i, RAISE_HEIGHT_CANDIDATE);
             }
 
             //  _ _
             // |_ _|
-            if (cells[i].next[RIGHT] != null) {
-                if (((cells[i].x == 0 || !cells[i].connect[LEFT]) &&
-                        !cells[i].connect[UP] && !cells[i].connect[DOWN]) &&
-                        ((cells[cells[i].next[RIGHT]].x == cols - 1 ||
-                                !cells[cells[i].next[RIGHT]].connect[RIGHT]) &&
-                                !cells[cells[i].next[RIGHT]].connect[UP] &&
-                                !cells[cells[i].next[RIGHT]].connect[DOWN])) {
-                    cells[cells[i].next[RIGHT]].isRaiseHeightCandidate = true;
-                    cells[i].isRaiseHeightCandidate = true;
+            int r = next(i, RIGHT);
+            if (r != -1) {
+                if (((x == 0 || !isConnected(i, LEFT)) &&
+                        !isConnected(i, UP) && !isConnected(i, DOWN)) &&
+                        ((cellX(r) == cols - 1 ||
+                                !isConnected(r, RIGHT)) &&
+                                !isConnected(r, UP) &&
+                                !isConnected(r, DOWN))) {
+                    setFlag(r, RAISE_HEIGHT_CANDIDATE);
+                    setFlag(i, RAISE_HEIGHT_CANDIDATE);
                 }
             }
 
             // determine if it has flexible width
 
             // if cell is on the right edge with an opening to the right
-            if (cells[i].x == cols - 1 && cells[i].connect[RIGHT]) {
-                cells[i].isShrinkWidthCandidate = true;
+            if (x == cols - 1 && isConnected(i, RIGHT)) {
+                setFlag(i, SHRINK_WIDTH_CANDIDATE);
             }
 
             //  _
@@ -250,28 +599,82 @@ public class TetrisGridGenerator {
             // or
             //  _
             //  _|
-            if ((cells[i].y == 0 || !cells[i].connect[UP]) &&
-                    (cells[i].y == rows - 1 || !cells[i].connect[DOWN]) &&
-                    cells[i].connect[LEFT] != cells[i].connect[RIGHT]) {
-                cells[i].isShrinkWidthCandidate = true;
+            if ((y == 0 || !isConnected(i, UP)) &&
+                    (y == rows - 1 || !isConnected(i, DOWN)) &&
+                    isConnected(i, LEFT) != isConnected(i, RIGHT)) {
+                setFlag(i, SHRINK_WIDTH_CANDIDATE);
             }
         }
     }
 
-    public static void fillCell(int cellIndex, int numFilled, int numGroups) {
-        cells[cellIndex].filled = true;
-        cells[cellIndex].no = numFilled;
-        cells[cellIndex].group = numGroups;
+    public void fillCell(int cellIndex, int numFilled, int numGroups) {
+        markFilled(cellIndex);
+        no[cellIndex] = numFilled;
+        group[cellIndex] = numGroups;
+        groupParent[numGroups] = numGroups;
+        groupRank[numGroups] = 0;
+    }
+
+    private void markFilled(int cellIdx) {
+        if (isFilled(cellIdx)) {
+            return;
+        }
+        setFlag(cellIdx, FILLED);
+        int x = cellX(cellIdx);
+        int y = cellY(cellIdx);
+        emptyRows[x * rowWords + (y >>> 6)] &= ~(1L << y);
+        emptyCount[x]--;
+        while (leftMostEmptyCol < cols && emptyCount[leftMostEmptyCol] == 0) {
+            leftMostEmptyCol++;
+        }
+    }
+
+    // Group of the cell after all merges so far, -1 if it has none. Two cells are in the same
+    // piece exactly when their groups are equal.
+    int findGroup(int cellIdx) {
+        int g = group[cellIdx];
+        if (g == -1) {
+            return -1;
+        }
+        int root = g;
+        while (groupParent[root] != root) {
+            root = groupParent[root];
+        }
+        while (groupParent[g] != root) {
+            int parent = groupParent[g];
+            groupParent[g] = root;
+            g = parent;
+        }
+        return root;
     }
 
+    // Merges the pieces of two cells into one group (union by rank)
+    private void mergeGroups(int cellIdx, int otherCellIdx) {
+        int a = findGroup(cellIdx);
+        int b = findGroup(otherCellIdx);
+        if (a == b || a == -1 || b == -1) {
+            return;
+        }
+        if (groupRank[a] < groupRank[b]) {
+            groupParent[a] = b;
+        } else {
+            groupParent[b] = a;
+            if (groupRank[a] == groupRank[b]) {
+                groupRank[a]++;
+            }
+        }
+    }
 
-    public static void gen() {
+    // Grows the pieces of a new layout. Returns false when the attempt is abandoned early because a
+    // piece that can no longer change already breaks one of the rules isDesirable() checks.
+    public boolean gen() {
+        rejection = null;
         int cellIdx;                        // cell at the center of growth (open cells are chosen around this cell)
-        Integer newCellIdx = null;          // most recent cell filled
+        int newCellIdx = -1;                // most recent cell filled
         int firstCellIdx;                   // the starting cell of the current group
 
-        List<Integer> openCells;            // list of open cells around the center cell
-        int numOpenCells;                   // size of openCells
+        int openCells;                      // mask of the open directions around the center cell
+        int numOpenCells;                   // number of bits set in openCells
 
         int dir = 0;                        // the most recent direction of growth relative to the center cell
         int i;                              // loop control variable used for iterating directions
@@ -279,50 +682,58 @@ public class TetrisGridGenerator {
         int numFilled = 0;  // current count of total cells filled
         int numGroups;      // current count of cell groups created
         int size;           // current number of cells in the current group
-        double[] probStopGrowingAtSize = { // probability of stopping growth at sizes...
-                0,     // size 0
-                0,     // size 1
-                0.10,  // size 2
-                0.5,   // size 3
-                0.75,  // size 4
-                1};    // size 5
+        GenerationParams params = this.params;
+        double[] probStopGrowingAtSize = params.probStopGrowingAtSize; // probability of stopping growth at sizes 0 to 5
 
         // A single cell group of size 1 is allowed at each row at y=0 and y=rows-1,
         // so keep count of those created.
-        Map<Integer, Integer> singleCount = new HashMap<>();
-        singleCount.put(0, 0);
-        singleCount.put(rows - 1, 0);
-        double probTopAndBotSingleCellJoin = 0.35;
+        int topSingleCount = 0;
+        int botSingleCount = 0;
+        double probTopAndBotSingleCellJoin = params.probTopAndBotSingleCellJoin;
 
         // A count and limit of the number long pieces (i.e. an "L" of size 4 or "T" of size 5)
         int longPieces = 0;
-        int maxLongPieces = 1;
+        int maxLongPieces = params.maxLongPieces;
         // double probExtendAtSize2 = 1;
-        double probExtendAtSize3or4 = 0.5;
+        double probExtendAtSize3or4 = params.probExtendAtSize3or4;
 
+        boolean firstColsChecked = false;
         for (numGroups = 0;; numGroups++) {
-            // find all the leftmost empty cells
-            openCells = getLeftMostEmptyCells();
+            // the leftmost empty cells are the empty cells of the frontier column
+            int leftCol = leftMostEmptyCol;
+
+            // every earlier piece is closed now, so check the rules that only depend on closed pieces.
+            // The first two columns can't change once they are full, so they are checked only once.
+            rejection = earlyRejection(leftCol >= 2 && !firstColsChecked);
+            if (rejection != null) {
+                return false;
+            }
+            firstColsChecked = leftCol >= 2;
 
             // stop add pieces if there are no more empty cells.
-            numOpenCells = openCells.size();
-            if (numOpenCells == 0) {
+            if (leftCol == cols) {
                 break;
             }
+            numOpenCells = emptyCount[leftCol];
 
             // choose the center cell to be a random open cell, and fill it.
-            int currentIndex = openCells.get(getRandomInt(0, numOpenCells - 1));
+            int currentIndex = leftCol + nthEmptyRow(leftCol, getRandomInt(0, numOpenCells - 1)) * cols;
             cellIdx = currentIndex;
             firstCellIdx = currentIndex;
             fillCell(currentIndex, numFilled, numGroups);
             numFilled++;
 
             // randomly allow one single-cell piece on the top or bottom of the map.
-            if (cells[cellIdx].x < cols - 1 && (singleCount.containsKey(cells[cellIdx].y)) &&
-                    Math.random() <= probTopAndBotSingleCellJoin) {
-                if (singleCount.get(cells[cellIdx].y) == 0) {
-                    cells[cellIdx].connect[cells[cellIdx].y == 0 ? UP : DOWN] = true;
-                    singleCount.put(cells[cellIdx].y, 1);
+            int cellY = cellY(cellIdx);
+            if (cellX(cellIdx) < cols - 1 && (cellY == 0 || cellY == rows - 1) &&
+                    random.nextDouble() <= probTopAndBotSingleCellJoin) {
+                if ((cellY == 0 ? topSingleCount : botSingleCount) == 0) {
+                    setConnected(cellIdx, cellY == 0 ? UP : DOWN);
+                    if (cellY == 0) {
+                        topSingleCount = 1;
+                    } else {
+                        botSingleCount = 1;
+                    }
                     continue;
                 }
             }
@@ -330,10 +741,10 @@ public class TetrisGridGenerator {
             // number of cells in this contiguous group
             size = 1;
 
-            if (cells[cellIdx].x == cols - 1) {
+            if (cellX(cellIdx) == cols - 1) {
                 // if the first cell is at the right edge, then don't grow it.
-                cells[cellIdx].connect[RIGHT] = true;
-                cells[cellIdx].isRaiseHeightCandidate = true;
+                setConnected(cellIdx, RIGHT);
+                setFlag(cellIdx, RAISE_HEIGHT_CANDIDATE);
             } else {
                 // only allow the piece to grow to 5 cells at most.
                 while (size < 5) {
@@ -341,24 +752,19 @@ public class TetrisGridGenerator {
                     if (size == 2) {
                         // With a horizontal 2-cell group, try to turn it into a 4-cell "L" group.
                         // This is done here because this case cannot be reached when a piece has already grown to size 3.
-                        if (cells[currentIndex].connect[RIGHT] &&
-                                cells[currentIndex].next[RIGHT] != null && cells[cells[currentIndex].next[RIGHT]].next[RIGHT] != null) {
+                        if (isConnected(currentIndex, RIGHT) &&
+                                next(currentIndex, RIGHT) != -1 && next(next(currentIndex, RIGHT), RIGHT) != -1) {
                             if (longPieces < maxLongPieces) {
-                                currentIndex = cells[cells[currentIndex].next[RIGHT]].next[RIGHT];
+                                currentIndex = next(next(currentIndex, RIGHT), RIGHT);
 
-                                Map<Integer, Boolean> dirs = new HashMap<>();
-                                if (isOpenCell(currentIndex, UP)) {
-                                    dirs.put(UP, true);
-                                }
-                                if (isOpenCell(currentIndex, DOWN)) {
-                                    dirs.put(DOWN, true);
-                                }
+                                boolean up = isOpenCell(currentIndex, UP);
+                                boolean down = isOpenCell(currentIndex, DOWN);
 
-                                if (dirs.containsKey(UP) && dirs.containsKey(DOWN)) {
-                                    i = (new int[]{UP, DOWN})[getRandomInt(0, 1)];
-                                } else if (dirs.containsKey(UP)) {
+                                if (up && down) {
+                                    i = getRandomInt(0, 1) == 0 ? UP : DOWN;
+                                } else if (up) {
                                     i = UP;
-                                } else if (dirs.containsKey(DOWN)) {
+                                } else if (down) {
                                     i = DOWN;
                                 } else {
                                     i = -1;
@@ -369,9 +775,7 @@ public class TetrisGridGenerator {
                                     fillCell(currentIndex, numFilled, numGroups);
                                     numFilled++;
                                     connectCell(currentIndex, i);
-                                    cells[cells[currentIndex].next[i]].filled = true;
-                                    cells[cells[currentIndex].next[i]].no = numFilled;
-                                    cells[cells[currentIndex].next[i]].group = numGroups;
+                                    fillCell(next(currentIndex, i), numFilled, numGroups);
 
                                     numFilled++;
                                     longPieces++;
@@ -384,60 +788,59 @@ public class TetrisGridGenerator {
 
                     if (!stop) {
                         // find available open adjacent cells.
-                        OpenCellsResult result = getOpenCells(cellIdx, dir, size);
-
-                        openCells = result.openCells;
-                        numOpenCells = result.numOpenCells;
+                        openCells = getOpenCells(cellIdx, dir, size);
+                        numOpenCells = Integer.bitCount(openCells);
 
                         // if no open cells found from center point, then use the last cell as the new center
                         // but only do this if we are of length 2 to prevent numerous short pieces.
                         // then recalculate the open adjacent cells.
                         if (numOpenCells == 0 && size == 2) {
                             cellIdx = newCellIdx;
-                            result = getOpenCells(cellIdx, dir, size);
-                            openCells = result.openCells;
-                            numOpenCells = result.numOpenCells;
+                            openCells = getOpenCells(cellIdx, dir, size);
+                            numOpenCells = Integer.bitCount(openCells);
                         }
 
                         // no more adjacent cells, so stop growing this piece.
                         if (numOpenCells == 0) {
-                            if (size == 1){
-                                System.err.println("---> Sorry i need to crash, this shouldn't be possible");
-                                int y = 0/0;
+                            if (size == 1) {
+                                // the first cell of a growing piece always has an empty neighbour; if it
+                                // doesn't, the frontier bookkeeping has gone wrong
+                                throw new IllegalStateException("piece started at cell " + firstCellIdx
+                                        + " has no empty neighbour to grow into");
                             }
                             stop = true;
                         } else {
                             // This condition gets triggered at least one time before the one up
 
                             // choose a random valid direction to grow.
-                            dir = openCells.get(getRandomInt(0, numOpenCells - 1)); // CHANGE MADE HERE
-                            newCellIdx = cells[cellIdx].next[dir];
+                            dir = nthSetBit(openCells, getRandomInt(0, numOpenCells - 1)); // CHANGE MADE HERE
+                            newCellIdx = next(cellIdx, dir);
                             /*
                             int exportDir;
                             do{
                                 dir = getRandomInt(0, 3);
-                                newCellIdx = cells[cellIdx].next[dir];
+                                newCellIdx = next(cellIdx, dir);
                                 exportDir = dir;
                             }
-                            while (newCellIdx == null);
+                            while (newCellIdx == -1);
                             dir = exportDir;
                             */
                             // connect the cell to the new cell.
                             connectCell(cellIdx, dir);
 
-                            // fill the cell
-                            fillCell(cellIdx, numFilled, numGroups);
+                            // fill the new cell
+                            fillCell(newCellIdx, numFilled, numGroups);
                             numFilled++;
 
                             // increase the size count of this piece.
                             size++;
                             // don't let center pieces grow past 3 cells
-                            if (cells[firstCellIdx].x == 0 && size == 3) {
+                            if (cellX(firstCellIdx) == 0 && size == 3) {
                                 stop = true;
                             }
 
                             // Use a probability to determine when to stop growing the piece.
-                            if (Math.random() <= probStopGrowingAtSize[size]) {
+                            if (random.nextDouble() <= probStopGrowingAtSize[size]) {
                                 stop = true;
                             }
                         }
@@ -445,40 +848,41 @@ public class TetrisGridGenerator {
 
                     // Close the piece.
                     if (stop) {
-                        if (size == 1){
-                            System.err.println("---> Sorry i need to crash, this shouldn't be possible");
-                            int x = 0/0; // CHECK THE ORIGINAL CODE; THIS SHOULD NOT BE POSSIBLE!!!!
-                        }
-                        else if (size == 2) {
+                        if (size == 1) {
+                            // pieces that stay a single cell (top and bottom joins, the right edge) never
+                            // get here, and every pass of this loop grows the piece first
+                            throw new IllegalStateException("piece started at cell " + firstCellIdx
+                                    + " closed with a single cell");
+                        } else if (size == 2) {
                             // With a vertical 2-cell group, attach to the right wall if adjacent.
-                            if (cells[firstCellIdx].x == cols - 1) {
+                            if (cellX(firstCellIdx) == cols - 1) {
                                 // select the top cell
-                                if (cells[firstCellIdx].connect[UP]) {
-                                    firstCellIdx = cells[firstCellIdx].next[UP];
+                                if (isConnected(firstCellIdx, UP)) {
+                                    firstCellIdx = next(firstCellIdx, UP);
                                 }
-                                cells[firstCellIdx].connect[RIGHT] = true;
+                                setConnected(firstCellIdx, RIGHT);
 
-                                if (cells[firstCellIdx].next[DOWN] != null){
-                                    cells[cells[firstCellIdx].next[DOWN]].connect[RIGHT] = true;
+                                if (next(firstCellIdx, DOWN) != -1){
+                                    setConnected(next(firstCellIdx, DOWN), RIGHT);
                                 }
                             }
                         } else if (size == 3 || size == 4) {
 
                             // Try to extend group to have a long leg
-                            if (longPieces < maxLongPieces && cells[firstCellIdx].x > 0 && Math.random() <= probExtendAtSize3or4) {
-                                Map<Integer, Boolean> dirs = new HashMap<>();
+                            if (longPieces < maxLongPieces && cellX(firstCellIdx) > 0 && random.nextDouble() <= probExtendAtSize3or4) {
+                                int dirsMask = 0;
                                 int dirsLength = 0;
                                 for (i = 0; i < 4; i++) {
-                                    if (cells[cellIdx].connect[i] && isOpenCell(cells[cellIdx].next[i], i)) {
-                                        dirs.put(i, true);
+                                    if (isConnected(cellIdx, i) && isOpenCell(next(cellIdx, i), i)) {
+                                        dirsMask |= 1 << i;
                                         dirsLength++;
                                     }
                                 }
                                 if (dirsLength > 0) {
-                                    i = new ArrayList<>(dirs.keySet()).get(getRandomInt(0, dirsLength - 1));
+                                    i = nthSetBit(dirsMask, getRandomInt(0, dirsLength - 1));
 
                                     connectCell(cellIdx, i);
-                                    fillCell(cells[cells[cellIdx].next[i]].next[i], numFilled, numGroups);
+                                    fillCell(next(next(cellIdx, i), i), numFilled, numGroups);
                                     numFilled++;
                                     longPieces++;
                                 }
@@ -490,35 +894,64 @@ public class TetrisGridGenerator {
             }
         }
         setResizeCandidates();
+        return true;
+    }
+
+    // Connections only ever get added during gen(), so a corner that is open stays open. Once the
+    // leftmost empty column is past the first two, the pieces there are final as well, and two stacked
+    // 2-cell pieces at x == 0 will be rejected by isDesirable() whatever happens later.
+    private RejectReason earlyRejection(boolean checkFirstCols) {
+        if (((board(UP, 0) | board(RIGHT, 0)) & lastCol) != 0) {
+            return RejectReason.TOP_RIGHT_CORNER;
+        }
+        if (((board(DOWN, rows - 1) | board(RIGHT, rows - 1)) & lastCol) != 0) {
+            return RejectReason.BOTTOM_RIGHT_CORNER;
+        }
+        if (checkFirstCols) {
+            for (int y = 0; y < rows - 1; y++) {
+                if ((stackedPairs(y) & 1) != 0) {
+                    return RejectReason.STACKED_PIECES;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Index of the n-th (0-based) set bit of mask
+    static int nthSetBit(long mask, int n) {
+        for (int k = 0; k < n; k++) {
+            mask &= mask - 1;
+        }
+        return Long.numberOfTrailingZeros(mask);
     }
 
     // Identify if a cell is the center of a cross.
-    public static boolean cellIsCrossCenter(Cell c) {
-        return c.connect[UP] && c.connect[RIGHT] && c.connect[DOWN] && c.connect[LEFT];
+    public boolean cellIsCrossCenter(int cellIdx) {
+        return connect[cellIdx] == 0b1111;
     }
 
-    public static <T> void shuffle(List<T> list) {
-        int len = list.size();
+    // Shuffle len ints of a starting at from, drawing the same random numbers as the list shuffle did
+    private void shuffle(int[] a, int from, int len) {
         for (int i = 0; i < len; i++) {
             int j = getRandomInt(0, len - 1);
-            T temp = list.get(i);
-            list.set(i, list.get(j));
-            list.set(j, temp);
+            int temp = a[from + i];
+            a[from + i] = a[from + j];
+            a[from + j] = temp;
         }
     }
 
-    public static boolean chooseNarrowCols() {
+    public boolean chooseNarrowCols() {
         for (int cellIdx = cols - 1; cellIdx >= 0; cellIdx--) {
-            if (cells[cellIdx].isShrinkWidthCandidate && canShrinkWidth(cellIdx, 0)) {
-                cells[cellIdx].shrinkWidth = true;
-                narrowCols[cells[cellIdx].y] = cells[cellIdx].x;
+            if (hasFlag(cellIdx, SHRINK_WIDTH_CANDIDATE) && canShrinkWidth(cellIdx, 0)) {
+                setFlag(cellIdx, SHRINK_WIDTH);
+                narrowCols[cellY(cellIdx)] = cellX(cellIdx);
                 return true;
             }
         }
         return false;
     }
 
-    public static boolean canShrinkWidth(int x, int y) {
+    public boolean canShrinkWidth(int x, int y) {
         // Can cause no more tight turns.
         if (y == rows - 1) {
             return true;
@@ -526,53 +959,58 @@ public class TetrisGridGenerator {
 
         // get the right-hand-side bound
         int x0;
-        Cell c;
-        Integer c2 = null;
+        int c;
+        int c2 = -1;
         for (x0 = x; x0 < cols; x0++) {
-            c = cells[x0 + y * cols];
-            c2 = c.next[DOWN];
-            if ((!c.connect[RIGHT] || cellIsCrossCenter(c)) &&
-                    (!cells[c2].connect[RIGHT] || cellIsCrossCenter(cells[c2]))) {
+            c = x0 + y * cols;
+            c2 = next(c, DOWN);
+            if ((!isConnected(c, RIGHT) || cellIsCrossCenter(c)) &&
+                    (!isConnected(c2, RIGHT) || cellIsCrossCenter(c2))) {
                 break;
             }
         }
 
-        // build candidate list
-        ArrayList<Integer> candidates = new ArrayList<>();
+        // build candidate list, on top of the candidates of the callers further up the recursion
+        int candidates = candidateTop;
         int numCandidates = 0;
-        for (; c2 != null; c2 = cells[c2].next[LEFT]) {
-            if (cells[c2].isShrinkWidthCandidate) {
-                candidates.add(c2);
+        for (; c2 != -1; c2 = next(c2, LEFT)) {
+            if (hasFlag(c2, SHRINK_WIDTH_CANDIDATE)) {
+                candidateStack[candidates + numCandidates] = c2;
                 numCandidates++;
             }
 
             // cannot proceed further without causing irreconcilable tight turns
-            if ((!cells[c2].connect[LEFT] || cellIsCrossCenter(cells[c2])) &&
-                    (!cells[cells[c2].next[UP]].connect[LEFT] || cellIsCrossCenter(cells[cells[c2].next[UP]]))) {
+            if ((!isConnected(c2, LEFT) || cellIsCrossCenter(c2)) &&
+                    (!isConnected(next(c2, UP), LEFT) || cellIsCrossCenter(next(c2, UP)))) {
                 break;
             }
         }
-        Collections.shuffle(candidates);
+        shuffle(candidateStack, candidates, numCandidates);
+        candidateTop = candidates + numCandidates;
 
-        for (int i = 0; i < numCandidates; i++) {
-            c2 = candidates.get(i);
-            if (canShrinkWidth(cells[c2].x, cells[c2].y)) {
-                cells[c2].shrinkWidth = true;
-                narrowCols[cells[c2].y] = cells[c2].x;
-                return true;
+        try {
+            for (int i = 0; i < numCandidates; i++) {
+                c2 = candidateStack[candidates + i];
+                if (canShrinkWidth(cellX(c2), cellY(c2))) {
+                    setFlag(c2, SHRINK_WIDTH);
+                    narrowCols[cellY(c2)] = cellX(c2);
+                    return true;
+                }
             }
+        } finally {
+            candidateTop = candidates;
         }
 
         return false;
     }
 
 
-    public static boolean chooseTallRows() {
-        for (int y = 0; y < 3; y++) {
+    public boolean chooseTallRows() {
+        for (int y = 0; y < config.ghostRow; y++) {
             int cellIdx = y * cols;
-            if (cells[cellIdx].isRaiseHeightCandidate && canRaiseHeight(0, y)) {
-                cells[cellIdx].raiseHeight = true;
-                tallRows[cells[cellIdx].x] = cells[cellIdx].y;
+            if (hasFlag(cellIdx, RAISE_HEIGHT_CANDIDATE) && canRaiseHeight(0, y)) {
+                setFlag(cellIdx, RAISE_HEIGHT);
+                tallRows[cellX(cellIdx)] = cellY(cellIdx);
                 return true;
             }
         }
@@ -580,7 +1018,7 @@ public class TetrisGridGenerator {
         return false;
     }
 
-    public static boolean canRaiseHeight(int x, int y) {
+    public boolean canRaiseHeight(int x, int y) {
         // Can cause no more tight turns.
         if (x == cols - 1) {
             return true;
@@ -588,210 +1026,224 @@ public class TetrisGridGenerator {
 
         // find the first cell below that will create too tight a turn on the right
         int y0;
-        Cell c;
-        Integer c2 = null;
+        int c;
+        int c2 = -1;
         for (y0 = y; y0 >= 0; y0--) {
-            c = cells[x + y0 * cols];
-            c2 = c.next[RIGHT];
-            if ((!c.connect[UP] || cellIsCrossCenter(c)) &&
-                    (!cells[c2].connect[UP] || cellIsCrossCenter(cells[c2]))) {
+            c = x + y0 * cols;
+            c2 = next(c, RIGHT);
+            if ((!isConnected(c, UP) || cellIsCrossCenter(c)) &&
+                    (!isConnected(c2, UP) || cellIsCrossCenter(c2))) {
                 break;
             }
         }
 
         // Proceed from the right cell upwards, looking for a cell that can be raised.
-        List<Integer> candidates = new ArrayList<>();
+        int candidates = candidateTop;
         int numCandidates = 0;
-        for (; c2 != null; c2 = cells[c2].next[DOWN]) {
-            if (cells[c2].isRaiseHeightCandidate) {
-                candidates.add(c2);
+        for (; c2 != -1; c2 = next(c2, DOWN)) {
+            if (hasFlag(c2, RAISE_HEIGHT_CANDIDATE)) {
+                candidateStack[candidates + numCandidates] = c2;
                 numCandidates++;
             }
 
             // cannot proceed further without causing irreconcilable tight turns
-            if ((!cells[c2].connect[DOWN] || cellIsCrossCenter(cells[c2])) &&
-                    (!cells[cells[c2].next[LEFT]].connect[DOWN] || cellIsCrossCenter(cells[cells[c2].next[LEFT]]))) {
+            if ((!isConnected(c2, DOWN) || cellIsCrossCenter(c2)) &&
+                    (!isConnected(next(c2, LEFT), DOWN) || cellIsCrossCenter(next(c2, LEFT)))) {
                 break;
             }
         }
-        Collections.shuffle(candidates);
+        shuffle(candidateStack, candidates, numCandidates);
+        candidateTop = candidates + numCandidates;
 
-        for (int i = 0; i < numCandidates; i++) {
-            c2 = candidates.get(i);
-            if (canRaiseHeight(cells[c2].x, cells[c2].y)) {
-                cells[c2].raiseHeight = true;
-                tallRows[cells[c2].x] = cells[c2].y;
-                return true;
+        try {
+            for (int i = 0; i < numCandidates; i++) {
+                c2 = candidateStack[candidates + i];
+                if (canRaiseHeight(cellX(c2), cellY(c2))) {
+                    setFlag(c2, RAISE_HEIGHT);
+                    tallRows[cellX(c2)] = cellY(c2);
+                    return true;
+                }
             }
+        } finally {
+            candidateTop = candidates;
         }
 
         return false;
     }
 
 
-    public static boolean isDesirable() {
+    public boolean isDesirable() {
         // Ensure a solid top right corner
-        Cell c = cells[4];
+        int c = cols - 1;
 
-        if (c.connect[UP] || c.connect[RIGHT]) {
-            System.out.println("err in first check");
+        if (isConnected(c, UP) || isConnected(c, RIGHT)) {
+            rejection = RejectReason.TOP_RIGHT_CORNER;
             return false;
         }
 
         // Ensure a solid bottom right corner
-        c = cells[rows * cols - 1];
-        if (c.connect[DOWN] || c.connect[RIGHT]) {
-            System.out.println("err in second check");
+        c = rows * cols - 1;
+        if (isConnected(c, DOWN) || isConnected(c, RIGHT)) {
+            rejection = RejectReason.BOTTOM_RIGHT_CORNER;
             return false;
         }
 
-        // Ensure there are no two stacked/side-by-side 2-cell pieces
+        // Ensure there are no two stacked/side-by-side 2-cell pieces.
+        // Pairs are visited in cell order; joining a square changes the connections, so the
+        // pairs after it are recomputed from the updated bitboards.
         for (int y = 0; y < rows - 1; y++) {
-            for (int x = 0; x < cols - 1; x++) {
-                if ((isHori(x, y) && isHori(x, y + 1)) ||
-                        (isVert(x, y) && isVert(x + 1, y))) {
+            long pairs = stackedPairs(y);
+            while (pairs != 0) {
+                int x = Long.numberOfTrailingZeros(pairs);
 
-                    // Don't allow them in the middle because they'll be two large when reflected.
-                    if (x == 0) {
-                        System.out.println("err in third check");
-                        return false;
-                    }
+                // Don't allow them in the middle because they'll be two large when reflected.
+                if (x == 0) {
+                    rejection = RejectReason.STACKED_PIECES;
+                    return false;
+                }
 
-                    // Join the four cells to create a square
-                    cells[x + y * cols].connect[DOWN] = true;
-                    cells[x + y * cols].connect[RIGHT] = true;
-                    int group = cells[x + y * cols].group;
+                // Join the four cells to create a square. Only these cells move to the group of the
+                // top left one: a piece can have a filled cell it isn't connected to (a long leg), so
+                // merging the whole pieces would join cells the square doesn't touch.
+                setConnected(x + y * cols, DOWN);
+                setConnected(x + y * cols, RIGHT);
+                int g = findGroup(x + y * cols);
 
-                    cells[x + 1 + y * cols].connect[DOWN] = true;
-                    cells[x + 1 + y * cols].connect[LEFT] = true;
-                    cells[x + 1 + y * cols].group = group;
+                setConnected(x + 1 + y * cols, DOWN);
+                setConnected(x + 1 + y * cols, LEFT);
+                group[x + 1 + y * cols] = g;
 
-                    cells[x + (y + 1) * cols].connect[UP] = true;
-                    cells[x + (y + 1) * cols].connect[RIGHT] = true;
-                    cells[x + (y + 1) * cols].group = group;
+                setConnected(x + (y + 1) * cols, UP);
+                setConnected(x + (y + 1) * cols, RIGHT);
+                group[x + (y + 1) * cols] = g;
 
-                    cells[x + 1 + (y + 1) * cols].connect[UP] = true;
-                    cells[x + 1 + (y + 1) * cols].connect[LEFT] = true;
-                    cells[x + 1 + (y + 1) * cols].group = group;
-                }
+                setConnected(x + 1 + (y + 1) * cols, UP);
+                setConnected(x + 1 + (y + 1) * cols, LEFT);
+                group[x + 1 + (y + 1) * cols] = g;
+
+                pairs = stackedPairs(y) & (-1L << (x + 1));
             }
         }
-        if (false){
-            chooseTallRows();
-            chooseNarrowCols();
-            return true;
-        }
         if (!chooseTallRows()) {
-            System.out.println("err in 4th check");
+            rejection = RejectReason.TALL_ROWS;
             return false;
         }
-        return chooseNarrowCols();
+        if (!chooseNarrowCols()) {
+            rejection = RejectReason.NARROW_COLS;
+            return false;
+        }
+        return true;
     }
 
-    private static boolean isHori(int x, int y) {
-        Cell c1 = cells[x + y * cols];
-        Cell c2 = cells[x + 1 + y * cols];
-        return !c1.connect[UP] && !c1.connect[DOWN] &&
-                (x == 0 || !c1.connect[LEFT]) && c1.connect[RIGHT] &&
-                !c2.connect[UP] && !c2.connect[DOWN] &&
-                c2.connect[LEFT] && !c2.connect[RIGHT];
+    private long board(int dir, int y) {
+        return connectBoards[dir * rows + y];
     }
 
-    private static boolean isVert(int x, int y) {
-        Cell c1 = cells[x + y * cols];
-        Cell c2 = cells[x + (y + 1) * cols];
-        if (x == cols - 1) {
-            // Special case (we can consider two single cells as vertical at the right edge)
-            return !c1.connect[LEFT] && !c1.connect[UP] &&
-                    !c1.connect[DOWN] && !c2.connect[LEFT] &&
-                    !c2.connect[UP] && !c2.connect[DOWN];
-        }
-        return !c1.connect[LEFT] && !c1.connect[RIGHT] &&
-                !c1.connect[UP] && c1.connect[DOWN] &&
-                !c2.connect[LEFT] && !c2.connect[RIGHT] &&
-                c2.connect[UP] && !c2.connect[DOWN];
+    // Cells x of row y with isHori(x, y) && isHori(x, y + 1) or isVert(x, y) && isVert(x + 1, y), for y < rows - 1
+    private long stackedPairs(int y) {
+        long vert = vertBoard(y);
+        return ((horiBoard(y) & horiBoard(y + 1)) | (vert & (vert >>> 1))) & notLastCol;
+    }
+
+    // Cells x of row y that start a horizontal 2-cell piece with (x + 1, y)
+    private long horiBoard(int y) {
+        long right = board(RIGHT, y), left = board(LEFT, y);
+        long flat = ~board(UP, y) & ~board(DOWN, y);
+        long first = flat & (~left | 1) & right;
+        long second = flat & left & ~right;
+        return first & (second >>> 1) & notLastCol;
+    }
+
+    // Cells x of row y that start a vertical 2-cell piece with (x, y + 1), for y < rows - 1
+    private long vertBoard(int y) {
+        long first = ~board(LEFT, y) & ~board(RIGHT, y) & ~board(UP, y) & board(DOWN, y);
+        long second = ~board(LEFT, y + 1) & ~board(RIGHT, y + 1) & board(UP, y + 1) & ~board(DOWN, y + 1);
+        // Special case (we can consider two single cells as vertical at the right edge)
+        long single = ~board(LEFT, y) & ~board(UP, y) & ~board(DOWN, y);
+        long singleBelow = ~board(LEFT, y + 1) & ~board(UP, y + 1) & ~board(DOWN, y + 1);
+        return (first & second & notLastCol) | (single & singleBelow & lastCol);
     }
 
     public void setUpScaleCoords() {
         for (int cellIdx = 0; cellIdx < rows * cols; cellIdx++) {
-            cells[cellIdx].final_x = cells[cellIdx].x * 3;
-            if (narrowCols[cells[cellIdx].y] < cells[cellIdx].x) {
-                cells[cellIdx].final_x--;
+            int x = cellX(cellIdx);
+            int y = cellY(cellIdx);
+            finalX[cellIdx] = x * 3;
+            if (narrowCols[y] < x) {
+                finalX[cellIdx]--;
             }
-            cells[cellIdx].final_y = cells[cellIdx].y * 3;
-            if (tallRows[cells[cellIdx].x] < cells[cellIdx].y) {
-                cells[cellIdx].final_y++;
+            finalY[cellIdx] = y * 3;
+            if (tallRows[x] < y) {
+                finalY[cellIdx]++;
             }
-            cells[cellIdx].final_w = cells[cellIdx].shrinkWidth ? 2 : 3;
-            cells[cellIdx].final_h = cells[cellIdx].raiseHeight ? 4 : 3;
+            finalW[cellIdx] = hasFlag(cellIdx, SHRINK_WIDTH) ? 2 : 3;
+            finalH[cellIdx] = hasFlag(cellIdx, RAISE_HEIGHT) ? 4 : 3;
         }
     }
 
 
-    public static <T> boolean isNotOutOfBounds(T[] array, int index) {
-        return index >= 0 && index < array.length;
-    }
-
-    public static boolean createTunnels() {
-        List<Integer> singleDeadEndCells = new ArrayList<>();
-        List<Integer> topSingleDeadEndCells = new ArrayList<>();
-        List<Integer> botSingleDeadEndCells = new ArrayList<>();
-        List<Integer> voidTunnelCells = new ArrayList<>();
-        List<Integer> topVoidTunnelCells = new ArrayList<>();
-        List<Integer> botVoidTunnelCells = new ArrayList<>();
-        List<Integer> edgeTunnelCells = new ArrayList<>();
-        List<Integer> topEdgeTunnelCells = new ArrayList<>();
-        List<Integer> botEdgeTunnelCells = new ArrayList<>();
-        List<Integer> doubleDeadEndCells = new ArrayList<>();
+    public boolean createTunnels() {
+        singleDeadEndCells.clear();
+        topSingleDeadEndCells.clear();
+        botSingleDeadEndCells.clear();
+        voidTunnelCells.clear();
+        topVoidTunnelCells.clear();
+        botVoidTunnelCells.clear();
+        edgeTunnelCells.clear();
+        topEdgeTunnelCells.clear();
+        botEdgeTunnelCells.clear();
+        doubleDeadEndCells.clear();
         int numTunnelsCreated;
 
         for (int y = 0; y < rows; y++) {
-            Integer currCellIdx = cols - 1 + y * cols;
-            if (cells[currCellIdx].connect[UP]) {
+            int currCellIdx = cols - 1 + y * cols;
+            if (isConnected(currCellIdx, UP)) {
                 continue;
             }
-            if (cells[currCellIdx].y > 1 && cells[currCellIdx].y < rows - 2) {
-                cells[currCellIdx].isEdgeTunnelCandidate = true;
+            if (y > 1 && y < rows - 2) {
+                setFlag(currCellIdx, EDGE_TUNNEL_CANDIDATE);
                 edgeTunnelCells.add(currCellIdx);
-                if (cells[currCellIdx].y <= 2) {
+                if (y <= config.topTunnelRow) {
                     topEdgeTunnelCells.add(currCellIdx);
-                } else if (cells[currCellIdx].y >= 5) {
+                } else if (y >= config.bottomTunnelRow) {
                     botEdgeTunnelCells.add(currCellIdx);
                 }
             }
-            boolean upDead = (isNotOutOfBounds(cells[currCellIdx].next, UP) || cells[cells[currCellIdx].next[UP]].connect[RIGHT]); // MODIFIED
-            boolean downDead = (isNotOutOfBounds(cells[currCellIdx].next, DOWN) || cells[cells[currCellIdx].next[DOWN]].connect[RIGHT]); // MODIFIED
-            if (cells[currCellIdx].connect[RIGHT]) {
+            // MODIFIED: both sides are always treated as dead ends
+            boolean upDead = true;
+            boolean downDead = true;
+            if (isConnected(currCellIdx, RIGHT)) {
                 if (upDead) {
-                    cells[currCellIdx].isVoidTunnelCandidate = true;
+                    setFlag(currCellIdx, VOID_TUNNEL_CANDIDATE);
                     voidTunnelCells.add(currCellIdx);
-                    if (cells[currCellIdx].y <= 2) {
+                    if (y <= config.topTunnelRow) {
                         topVoidTunnelCells.add(currCellIdx);
-                    } else if (cells[currCellIdx].y >= 6) {
+                    } else if (y >= config.bottomTunnelRow + 1) {
                         botVoidTunnelCells.add(currCellIdx);
                     }
                 }
             } else {
-                if (cells[currCellIdx].connect[DOWN]) {
+                if (isConnected(currCellIdx, DOWN)) {
                     continue;
                 }
                 if (upDead != downDead) {
-                    if (!cells[currCellIdx].raiseHeight && y < rows - 1 && !cells[cells[currCellIdx].next[LEFT]].connect[LEFT]) {
+                    if (!hasFlag(currCellIdx, RAISE_HEIGHT) && y < rows - 1 && !isConnected(next(currCellIdx, LEFT), LEFT)) {
                         singleDeadEndCells.add(currCellIdx);
-                        cells[currCellIdx].isSingleDeadEndCandidate = true;
-                        cells[currCellIdx].singleDeadEndDir = upDead ? UP : DOWN;
+                        setFlag(currCellIdx, SINGLE_DEAD_END_CANDIDATE);
+                        singleDeadEndDir[currCellIdx] = upDead ? UP : DOWN;
                         int offset = upDead ? 1 : 0;
-                        if (cells[currCellIdx].y <= 1 + offset) {
+                        if (y <= config.topTunnelRow - 1 + offset) {
                             topSingleDeadEndCells.add(currCellIdx);
-                        } else if (cells[currCellIdx].y >= 5 + offset) {
+                        } else if (y >= config.bottomTunnelRow + offset) {
                             botSingleDeadEndCells.add(currCellIdx);
                         }
                     }
                 } else if (upDead) {
                     if (y > 0 && y < rows - 1) {
-                        if (cells[cells[currCellIdx].next[LEFT]].connect[UP] && cells[cells[currCellIdx].next[LEFT]].connect[DOWN]) {
-                            cells[currCellIdx].isDoubleDeadEndCandidate = true;
-                            if (cells[currCellIdx].y >= 2 && cells[currCellIdx].y <= 5) {
+                        int left = next(currCellIdx, LEFT);
+                        if (isConnected(left, UP) && isConnected(left, DOWN)) {
+                            setFlag(currCellIdx, DOUBLE_DEAD_END_CANDIDATE);
+                            if (y >= config.topTunnelRow && y <= config.bottomTunnelRow) {
                                 doubleDeadEndCells.add(currCellIdx);
                             }
                         }
@@ -801,40 +1253,40 @@ public class TetrisGridGenerator {
         }
 
         int numTunnelsDesired = random.nextDouble() <= 0.45 ? 2 : 1;
-        Integer randomCellIdx;
+        int randomCellIdx;
         if (numTunnelsDesired == 1) {
-            if ((randomCellIdx = randomElement(voidTunnelCells)) != null) {
-                cells[randomCellIdx].topTunnel = true;
-            } else if ((randomCellIdx = randomElement(singleDeadEndCells)) != null) {
+            if ((randomCellIdx = randomElement(voidTunnelCells)) != -1) {
+                setFlag(randomCellIdx, TOP_TUNNEL);
+            } else if ((randomCellIdx = randomElement(singleDeadEndCells)) != -1) {
                 selectSingleDeadEnd(randomCellIdx);
-            } else if ((randomCellIdx = randomElement(edgeTunnelCells)) != null) {
-                cells[randomCellIdx].topTunnel = true;
+            } else if ((randomCellIdx = randomElement(edgeTunnelCells)) != -1) {
+                setFlag(randomCellIdx, TOP_TUNNEL);
             } else {
                 return false;
             }
         } else {
-            if ((randomCellIdx = randomElement(doubleDeadEndCells)) != null) {
-                cells[randomCellIdx].connect[RIGHT] = true;
-                cells[randomCellIdx].topTunnel = true;
-                cells[cells[randomCellIdx].next[DOWN]].topTunnel = true;
+            if ((randomCellIdx = randomElement(doubleDeadEndCells)) != -1) {
+                setConnected(randomCellIdx, RIGHT);
+                setFlag(randomCellIdx, TOP_TUNNEL);
+                setFlag(next(randomCellIdx, DOWN), TOP_TUNNEL);
             } else {
                 numTunnelsCreated = 1;
-                if ((randomCellIdx = randomElement(topVoidTunnelCells)) != null) {
-                    cells[randomCellIdx].topTunnel = true;
-                } else if ((randomCellIdx = randomElement(topSingleDeadEndCells)) != null) {
+                if ((randomCellIdx = randomElement(topVoidTunnelCells)) != -1) {
+                    setFlag(randomCellIdx, TOP_TUNNEL);
+                } else if ((randomCellIdx = randomElement(topSingleDeadEndCells)) != -1) {
                     selectSingleDeadEnd(randomCellIdx);
-                } else if ((randomCellIdx = randomElement(topEdgeTunnelCells)) != null) {
-                    cells[randomCellIdx].topTunnel = true;
+                } else if ((randomCellIdx = randomElement(topEdgeTunnelCells)) != -1) {
+                    setFlag(randomCellIdx, TOP_TUNNEL);
                 } else {
                     numTunnelsCreated = 0;
                 }
 
-                if ((randomCellIdx = randomElement(botVoidTunnelCells)) != null) {
-                    cells[randomCellIdx].topTunnel = true;
-                } else if ((randomCellIdx = randomElement(botSingleDeadEndCells)) != null) {
+                if ((randomCellIdx = randomElement(botVoidTunnelCells)) != -1) {
+                    setFlag(randomCellIdx, TOP_TUNNEL);
+                } else if ((randomCellIdx = randomElement(botSingleDeadEndCells)) != -1) {
                     selectSingleDeadEnd(randomCellIdx);
-                } else if ((randomCellIdx = randomElement(botEdgeTunnelCells)) != null) {
-                    cells[randomCellIdx].topTunnel = true;
+                } else if ((randomCellIdx = randomElement(botEdgeTunnelCells)) != -1) {
+                    setFlag(randomCellIdx, TOP_TUNNEL);
                 } else {
                     if (numTunnelsCreated == 0) {
                         return false;
@@ -845,12 +1297,12 @@ public class TetrisGridGenerator {
 
         for (int y = 0; y < rows; y++) {
             randomCellIdx = cols - 1 + y * cols;
-            if (cells[randomCellIdx].topTunnel) {
+            if (hasFlag(randomCellIdx, TOP_TUNNEL)) {
                 boolean exit = true;
-                int topy = cells[randomCellIdx].final_y;
-                while (cells[randomCellIdx].next[LEFT] != null) {
-                    randomCellIdx = cells[randomCellIdx].next[LEFT];
-                    if (!(!cells[randomCellIdx].connect[UP] && cells[randomCellIdx].final_y == topy)) {
+                int topy = finalY[randomCellIdx];
+                while (next(randomCellIdx, LEFT) != -1) {
+                    randomCellIdx = next(randomCellIdx, LEFT);
+                    if (!(!isConnected(randomCellIdx, UP) && finalY[randomCellIdx] == topy)) {
                         exit = false;
                         break;
                     }
@@ -861,57 +1313,54 @@ public class TetrisGridGenerator {
             }
         }
 
-        for (Integer voidTunnelCell : voidTunnelCells) {
-            randomCellIdx = voidTunnelCell;
-            if (!cells[randomCellIdx].topTunnel) {
-                replaceGroup(cells[randomCellIdx].group, cells[cells[randomCellIdx].next[UP]].group);
-                cells[randomCellIdx].connect[UP] = true;
-                cells[cells[randomCellIdx].next[UP]].connect[DOWN] = true;
+        for (int v = 0; v < voidTunnelCells.size(); v++) {
+            randomCellIdx = voidTunnelCells.get(v);
+            if (!hasFlag(randomCellIdx, TOP_TUNNEL)) {
+                int up = next(randomCellIdx, UP);
+                mergeGroups(randomCellIdx, up);
+                setConnected(randomCellIdx, UP);
+                setConnected(up, DOWN);
             }
         }
 
         return true;
     }
 
-    public static <T> T randomElement(List<T> list) {
-        if (list.isEmpty()) return null;
+    // Removes and returns a random element of the list, or -1 if it is empty
+    int randomElement(IntList list) {
+        if (list.isEmpty()) return -1;
         int index = random.nextInt(list.size());
         return list.remove(index);
     }
 
-    private static void selectSingleDeadEnd(int cellIdx) {
-        cells[cellIdx].connect[RIGHT] = true;
-        if (cells[cellIdx].singleDeadEndDir == UP) {
-            cells[cellIdx].topTunnel = true;
+    private void selectSingleDeadEnd(int cellIdx) {
+        setConnected(cellIdx, RIGHT);
+        if (singleDeadEndDir[cellIdx] == UP) {
+            setFlag(cellIdx, TOP_TUNNEL);
         } else {
-            cells[cells[cellIdx].next[DOWN]].topTunnel = true;
-        }
-    }
-
-    private static void replaceGroup(Integer oldg, Integer newg) {
-        for (int cellIdx = 0; cellIdx < rows * cols; cellIdx++) {
-            if (Objects.equals(cells[cellIdx].group, oldg)) {
-                cells[cellIdx].group = newg;
-            }
+            setFlag(next(cellIdx, DOWN), TOP_TUNNEL);
         }
     }
 
-    public static void joinWalls() {
+    public void joinWalls() {
+        double probJoinTopBottom = params.probJoinTopBottom;
+        double probJoinRight = params.probJoinRight;
 
         // join cells to the top boundary
         for (int currCellIdx = 0; currCellIdx < cols; currCellIdx++) {
-            if (!cells[currCellIdx].connect[LEFT] && !cells[currCellIdx].connect[RIGHT] && !cells[currCellIdx].connect[UP] &&
-                    (!cells[currCellIdx].connect[DOWN] || !cells[currCellIdx + cols].connect[DOWN])) {
+            if (!isConnected(currCellIdx, LEFT) && !isConnected(currCellIdx, RIGHT) && !isConnected(currCellIdx, UP) &&
+                    (!isConnected(currCellIdx, DOWN) || !isConnected(currCellIdx + cols, DOWN))) {
 
                 // ensure it will not create a dead-end
-                if ((isNotOutOfBounds(cells[currCellIdx].next, LEFT) || !cells[cells[currCellIdx].next[LEFT]].connect[UP]) &&
-                        (cells[currCellIdx].next[RIGHT] != null && !cells[cells[currCellIdx].next[RIGHT]].connect[UP])) {
+                int right = next(currCellIdx, RIGHT);
+                if (right != -1 && !isConnected(right, UP)) {
 
                     // prevent connecting very large piece
-                    if (!(cells[currCellIdx].next[DOWN] != null && cells[cells[currCellIdx].next[DOWN]].connect[RIGHT] && cells[cells[cells[currCellIdx].next[DOWN]].next[RIGHT]].connect[RIGHT])) {
-                        cells[currCellIdx].isJoinCandidate = true;
-                        if (Math.random() <= 0.25) {
-                            cells[currCellIdx].connect[UP] = true;
+                    int down = next(currCellIdx, DOWN);
+                    if (!(down != -1 && isConnected(down, RIGHT) && isConnected(next(down, RIGHT), RIGHT))) {
+                        setFlag(currCellIdx, JOIN_CANDIDATE);
+                        if (random.nextDouble() <= probJoinTopBottom) {
+                            setConnected(currCellIdx, UP);
                         }
                     }
                 }
@@ -921,18 +1370,19 @@ public class TetrisGridGenerator {
         // join cells to the bottom boundary
         for (int x = 0; x < cols; x++) {
             int cellIdx = x + (rows - 1) * cols;
-            if (!cells[cellIdx].connect[LEFT] && !cells[cellIdx].connect[RIGHT] && !cells[cellIdx].connect[DOWN] &&
-                    (!cells[cellIdx].connect[UP] || !cells[x + (rows - 2) * cols].connect[UP])) {
+            if (!isConnected(cellIdx, LEFT) && !isConnected(cellIdx, RIGHT) && !isConnected(cellIdx, DOWN) &&
+                    (!isConnected(cellIdx, UP) || !isConnected(x + (rows - 2) * cols, UP))) {
 
                 // ensure it will not create a dead-end
-                if ((isNotOutOfBounds(cells[cellIdx].next, LEFT) || !cells[cells[cellIdx].next[LEFT]].connect[DOWN]) &&
-                        (cells[cellIdx].next[RIGHT] != null && !cells[cells[cellIdx].next[RIGHT]].connect[DOWN])) {
+                int right = next(cellIdx, RIGHT);
+                if (right != -1 && !isConnected(right, DOWN)) {
 
                     // prevent connecting very large piece
-                    if (!(cells[cellIdx].next[UP] != null && cells[cells[cellIdx].next[UP]].connect[RIGHT] && cells[cells[cells[cellIdx].next[UP]].next[RIGHT]].connect[RIGHT])) {
-                        cells[cellIdx].isJoinCandidate = true;
-                        if (Math.random() <= 0.25) {
-                            cells[cellIdx].connect[DOWN] = true;
+                    int up = next(cellIdx, UP);
+                    if (!(up != -1 && isConnected(up, RIGHT) && isConnected(next(up, RIGHT), RIGHT))) {
+                        setFlag(cellIdx, JOIN_CANDIDATE);
+                        if (random.nextDouble() <= probJoinTopBottom) {
+                            setConnected(cellIdx, DOWN);
                         }
                     }
                 }
@@ -942,17 +1392,17 @@ public class TetrisGridGenerator {
         // join cells to the right boundary
         for (int y = 1; y < rows - 1; y++) {
             int cellIdx = cols - 1 + y * cols;
-            if (cells[cellIdx].raiseHeight) {
+            if (hasFlag(cellIdx, RAISE_HEIGHT)) {
                 continue;
             }
-            if (!cells[cellIdx].connect[RIGHT] && !cells[cellIdx].connect[UP] && !cells[cellIdx].connect[DOWN] &&
-                    !cells[cells[cellIdx].next[UP]].connect[RIGHT] && !cells[cells[cellIdx].next[DOWN]].connect[RIGHT]) {
-                if (cells[cellIdx].connect[LEFT]) {
-                    int otherCellIdx = cells[cellIdx].next[LEFT];
-                    if (isNotOutOfBounds(cells[otherCellIdx].connect, UP) && !cells[otherCellIdx].connect[DOWN] && !cells[otherCellIdx].connect[LEFT]) {
-                        cells[cellIdx].isJoinCandidate = true;
-                        if (Math.random() <= 0.5) {
-                            cells[cellIdx].connect[RIGHT] = true;
+            if (!isConnected(cellIdx, RIGHT) && !isConnected(cellIdx, UP) && !isConnected(cellIdx, DOWN) &&
+                    !isConnected(next(cellIdx, UP), RIGHT) && !isConnected(next(cellIdx, DOWN), RIGHT)) {
+                if (isConnected(cellIdx, LEFT)) {
+                    int otherCellIdx = next(cellIdx, LEFT);
+                    if (!isConnected(otherCellIdx, DOWN) && !isConnected(otherCellIdx, LEFT)) {
+                        setFlag(cellIdx, JOIN_CANDIDATE);
+                        if (random.nextDouble() <= probJoinRight) {
+                            setConnected(cellIdx, RIGHT);
                         }
                     }
                 }
@@ -960,157 +1410,395 @@ public class TetrisGridGenerator {
         }
     }
 
-    void genRandom() {
+    // Attempts generate() makes before it gives up and renders the last one
+    static final int MAX_ATTEMPTS = 15_000;
+
+    // Default for setStageRetries()
+    static final int DEFAULT_STAGE_RETRIES = 3;
+
+    // Runs the whole pipeline against this instance's buffers and returns the tile string.
+    public String generate() {
+        generateTiles();
+        return getTileString();
+    }
+
+    // Runs the whole pipeline and leaves the map in this instance's tile buffer, where getTileString(),
+    // getMapTile() and MazeCodec read it without going through a String.
+    public void generateTiles() {
+        generateTiles(0, MAX_ATTEMPTS, false, 0);
+    }
+
+    // Rebuilds a known maze: starts with the attempt getLastWinningAttempt() reported when this seed was
+    // generated before (with the same config and stage retries), so the map comes out of a single attempt.
+    // A wrong hint costs that one attempt, after which the search runs from the first attempt as usual.
+    public GenerationOutcome regenerateTiles(int winningAttempt) {
+        if (winningAttempt < 0) {
+            throw new IllegalArgumentException("winningAttempt must not be negative: " + winningAttempt);
+        }
+        return generateTiles(winningAttempt, MAX_ATTEMPTS, false, 0);
+    }
+
+    // As above, but gives up after maxAttempts attempts or once timeout has passed (null for no timeout),
+    // whichever comes first. Every rejected attempt counts, wherever it was rejected. When it gives up,
+    // the last attempt is rendered as it is and the outcome says why.
+    public GenerationOutcome generateTiles(int maxAttempts, Duration timeout) {
+        if (timeout == null) {
+            return generateTiles(0, maxAttempts, false, 0);
+        }
+        return generateTiles(0, maxAttempts, true, System.nanoTime() + timeout.toNanos());
+    }
+
+    private GenerationOutcome generateTiles(int firstAttempt, int maxAttempts, boolean bounded, long deadline) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        }
+        listener.mazeStarted(seed);
+
         // Try to generate a valid map, and keep count of tries.
         int genCount = 0;
-        boolean failed = false;
+        int attempt = firstAttempt;
+        boolean hinted = firstAttempt > 0;
+        GenerationOutcome outcome;
         while (true) {
-            reset();
-            gen();
             genCount++;
-            if (!isDesirable()) {
-                System.out.println("GRRRR, not desirable, attempt num "+genCount);
-                if (genCount >= 15_000){
-                    System.out.println("Failed to generate!");
-                    System.out.println("Here is the last generated map");
-                    failed = true;
-                    break;
-                }
-                continue;
+            if (runAttempt(attempt)) {
+                outcome = GenerationOutcome.SUCCESS;
+                break;
             }
-            setUpScaleCoords();
+            if (genCount >= maxAttempts) {
+                outcome = GenerationOutcome.ATTEMPTS_EXHAUSTED;
+                break;
+            }
+            if (bounded && System.nanoTime() - deadline >= 0) {
+                outcome = GenerationOutcome.DEADLINE_EXCEEDED;
+                break;
+            }
+            if (hinted) {
+                // the hint was wrong, search from the start but don't repeat it
+                hinted = false;
+                attempt = 0;
+            } else if (++attempt == firstAttempt) {
+                attempt++;
+            }
+        }
+        finishTiles(outcome, attempt, genCount);
+        return outcome;
+    }
+
+    // Runs the attempt with the given index (the sub-seed MazeRandom.derive(seed, index)) as far as a joined
+    // and tunnelled layout, without rendering it, and returns whether that is a valid map. An attempt
+    // depends on nothing but the seed, its index, the stage retries and the layout table, so generators
+    // set up alike can share out the indices of one seed; SpeculativeMazeGenerator does.
+    boolean runAttempt(int attempt) {
+        if (!runLayout(attempt)) {
+            return false;
+        }
+        GenerationListener listener = this.listener;
+        boolean timed = listener.timesStages();
+        long t = timed ? System.nanoTime() : 0;
+        attemptScaled = true;
+        setUpScaleCoords();
+        if (stageRetries > 0) {
+            saveScaled();
+        }
+        if (timed) t = stageTimed(GenerationStage.SET_UP_SCALE_COORDS, t);
+        for (int retry = 0; ; retry++) {
             joinWalls();
-            if (!createTunnels()) {
-                continue;
+            if (timed) t = stageTimed(GenerationStage.JOIN_WALLS, t);
+            boolean tunnelled = createTunnels();
+            if (timed) t = stageTimed(GenerationStage.CREATE_TUNNELS, t);
+            if (retry > 0) {
+                if (tunnelled) {
+                    successfulStageRetries++;
+                }
+                listener.stageRetried(tunnelled);
             }
-            break;
+            if (tunnelled) {
+                return true;
+            }
+            if (retry == stageRetries) {
+                break;
+            }
+            restoreScaled();
+            stageRetryCount++;
+        }
+        rejection = RejectReason.TUNNELS;
+        reject(false);
+        return false;
+    }
+
+    // The first half of runAttempt(): lays out the pieces of the attempt with the given index, with gen()
+    // and isDesirable() or by drawing from the layout table, and returns whether the layout was accepted
+    boolean runLayout(int attempt) {
+        GenerationListener listener = this.listener;
+        boolean timed = listener.timesStages();
+        long t = timed ? System.nanoTime() : 0;
+
+        // every attempt draws from its own sub-stream of the maze seed
+        random.setSeed(MazeRandom.derive(seed, attempt));
+        reset();
+        if (timed) t = stageTimed(GenerationStage.RESET, t);
+        attempts++;
+        attemptScaled = false;
+        if (layouts != null) {
+            // the table only holds layouts isDesirable() accepted; the draw is timed as gen()
+            layouts.read(layouts.draw(random), this);
+            attemptGrown = true;
+            if (timed) stageTimed(GenerationStage.GEN, t);
+            return true;
+        }
+        attemptGrown = gen();
+        if (timed) t = stageTimed(GenerationStage.GEN, t);
+        if (!attemptGrown) {
+            reject(true);
+            return false;
         }
-        if (failed){
+        boolean desirable = isDesirable();
+        if (timed) stageTimed(GenerationStage.IS_DESIRABLE, t);
+        if (!desirable) {
+            reject(false);
+            return false;
+        }
+        return true;
+    }
+
+    // Renders the layout the last runAttempt() call left, the attempt with the given index, and records
+    // how the search that ran attemptCount attempts ended
+    void finishTiles(GenerationOutcome outcome, int attempt, int attemptCount) {
+        boolean timed = listener.timesStages();
+        long t = timed ? System.nanoTime() : 0;
+        if (!attemptScaled) {
+            // render the last attempt as it is; one cut short by gen() has empty cells that the
+            // joining and tunnelling steps can't handle
             setUpScaleCoords();
-            joinWalls();
-            createTunnels();
+            if (attemptGrown) {
+                joinWalls();
+                createTunnels();
+            }
+            if (timed) t = System.nanoTime();
+        }
+        lastAttempts = attemptCount;
+        lastOutcome = outcome;
+        lastWinningAttempt = outcome == GenerationOutcome.SUCCESS ? attempt : -1;
+        renderTiles();
+        if (timed) stageTimed(GenerationStage.GET_TILES, t);
+        listener.mazeGenerated(attemptCount, outcome == GenerationOutcome.SUCCESS);
+    }
+
+    private void saveScaled() {
+        System.arraycopy(connect, 0, scaledConnect, 0, connect.length);
+        System.arraycopy(connectBoards, 0, scaledConnectBoards, 0, connectBoards.length);
+        System.arraycopy(flags, 0, scaledFlags, 0, flags.length);
+        System.arraycopy(groupParent, 0, scaledGroupParent, 0, groupParent.length);
+        System.arraycopy(groupRank, 0, scaledGroupRank, 0, groupRank.length);
+    }
+
+    private void restoreScaled() {
+        System.arraycopy(scaledConnect, 0, connect, 0, connect.length);
+        System.arraycopy(scaledConnectBoards, 0, connectBoards, 0, connectBoards.length);
+        System.arraycopy(scaledFlags, 0, flags, 0, flags.length);
+        System.arraycopy(scaledGroupParent, 0, groupParent, 0, groupParent.length);
+        System.arraycopy(scaledGroupRank, 0, groupRank, 0, groupRank.length);
+    }
+
+    // Resize flags that gen() and isDesirable() leave for the later stages
+    private static final int LAYOUT_FLAGS = SHRINK_WIDTH_CANDIDATE | RAISE_HEIGHT_CANDIDATE | SHRINK_WIDTH | RAISE_HEIGHT;
+
+    // Largest grid, in cells, whose layouts writeLayout() can write: a piece is labelled in one byte
+    static final int MAX_LAYOUT_CELLS = 255;
+
+    // Bytes taken by a layout from writeLayout()
+    int getLayoutSize() {
+        return 2 * rows * cols;
+    }
+
+    // Writes the layout gen() and isDesirable() produced, two bytes per cell. The first has the cell's
+    // connections in the low four bits and its resize flags in the high four; the narrow columns and
+    // tall rows follow from the flags. The second is 1 + the index of the first cell of the cell's
+    // piece, or 0 for the ghost house, which has none. Pieces have to be stored: a long piece fills a
+    // cell two steps away from the one it grows from without connecting it.
+    void writeLayout(byte[] out, int offset) {
+        int cells = rows * cols;
+        if (cells > MAX_LAYOUT_CELLS) {
+            throw new IllegalStateException("layouts need a grid of at most " + MAX_LAYOUT_CELLS + " cells: " + config);
+        }
+        int[] firstCell = new int[cells];
+        Arrays.fill(firstCell, -1);
+        for (int i = 0; i < cells; i++) {
+            out[offset + i] = (byte) (connect[i] | (flags[i] & LAYOUT_FLAGS) << 3);
+            int g = findGroup(i);
+            if (g == -1) {
+                out[offset + cells + i] = 0;
+            } else {
+                if (firstCell[g] == -1) {
+                    firstCell[g] = i;
+                }
+                out[offset + cells + i] = (byte) (firstCell[g] + 1);
+            }
         }
-        else{
-            System.out.println("Success!");
+    }
+
+    // Puts back a layout from writeLayout(), leaving the generator as an accepted isDesirable() call
+    // would, ready for setUpScaleCoords()
+    void readLayout(byte[] in, int offset) {
+        int cells = rows * cols;
+        Arrays.fill(connectBoards, 0);
+        Arrays.fill(narrowCols, 0);
+        Arrays.fill(tallRows, 0);
+        for (int i = 0; i < cells; i++) {
+            int b = in[offset + i];
+            connect[i] = (byte) (b & 0xF);
+            for (int dir = 0; dir < 4; dir++) {
+                if ((b & 1 << dir) != 0) {
+                    connectBoards[dir * rows + cellY(i)] |= 1L << cellX(i);
+                }
+            }
+            flags[i] = FILLED | (b & 0xF0) >>> 3;
+            if (hasFlag(i, SHRINK_WIDTH)) {
+                narrowCols[cellY(i)] = cellX(i);
+            }
+            if (hasFlag(i, RAISE_HEIGHT)) {
+                tallRows[cellX(i)] = cellY(i);
+            }
+            // every piece is its own group, named after its first cell
+            int g = (in[offset + cells + i] & 0xFF) - 1;
+            group[i] = g;
+            if (g == i) {
+                groupParent[g] = g;
+                groupRank[g] = 0;
+            }
         }
-        String generatedMap = getTiles();
-        int maxLength = 28;
+        rejection = null;
+    }
+
+    private void reject(boolean early) {
+        (early ? earlyRejections : rejections)[rejection.ordinal()]++;
+        listener.attemptRejected(rejection, early);
+    }
+
+    private long stageTimed(GenerationStage stage, long start) {
+        long now = System.nanoTime();
+        listener.stageTimed(stage, now - start);
+        return now;
+    }
+
+    void genRandom() {
+        String generatedMap = generate();
+        if (isLastSuccessful()) {
+            System.out.println("Success! (" + getLastAttempts() + " attempts)");
+        } else {
+            System.out.println("Failed to generate! (" + getLastOutcome() + " after " + getLastAttempts() + " attempts)");
+            System.out.println("Here is the last generated map");
+        }
+        int maxLength = fullcols;
         for (int i = 0; i < generatedMap.length(); i += maxLength) {
             int endIndex = Math.min(i + maxLength, generatedMap.length());
             System.out.println(generatedMap.substring(i, endIndex));
         }
     }
 
+    // Optional argument: grid size as ROWSxCOLS
     public static void main(String[] args) {
-        TetrisGridGenerator tetris = new TetrisGridGenerator();
+        TetrisGridGenerator tetris = new TetrisGridGenerator(args.length > 0 ? MazeConfig.parse(args[0]) : MazeConfig.DEFAULT);
         tetris.genRandom();
     }
 
     // Function to transform cells to tiles
-    public static String getTiles() {
+    public String getTiles() {
+        renderTiles();
+        return getTileString();
+    }
+
+    // The map as rendered by the last renderTiles(), with the blank rows above and below it
+    public String getTileString() {
+        String blankRow = "_".repeat(fullcols);
+        return blankRow.repeat(TOP_PADDING_ROWS) + new String(tiles) + blankRow.repeat(BOTTOM_PADDING_ROWS);
+    }
+
+    // Tile i (x + y * getWidth()) of the map getTileString() returns
+    char getMapTile(int i) {
+        i -= TOP_PADDING_ROWS * fullcols;
+        return i < 0 || i >= tiles.length ? '_' : tiles[i];
+    }
+
+    // Height of the map, padding rows included
+    public int getHeight() {
+        return TOP_PADDING_ROWS + subrows + BOTTOM_PADDING_ROWS;
+    }
+
+    // getHeight() of a generator with the given config
+    static int mapHeight(MazeConfig config) {
+        return TOP_PADDING_ROWS + config.subrows + BOTTOM_PADDING_ROWS;
+    }
+
+    void renderTiles() {
         // initialize tiles
         int i;
-        for (i=0; i<subrows*fullcols; i++) {
-            tiles[i] = '_';
-        }
-        for (i=0; i<subrows*subcols; i++) {
-            tileCells[i] = null;
-        }
-        // set tile cells
-        Cell c;
-        int x, y;
-        int x0, y0;
+        Arrays.fill(pathTiles, 0);
+        fillTileCells();
+        // the pieces are final by now, so look every cell's group up once
         for (i = 0; i < rows * cols; i++) {
-            c = cells[i];
-            for (x0 = 0; x0 < c.final_w; x0++) {
-                for (y0 = 0; y0 < c.final_h; y0++) {
-                    setTileCell(c.final_x + x0, c.final_y + 1 + y0, c);
-                }
-            }
+            cellGroups[i] = findGroup(i);
         }
 
-        Cell cl, cu;
+        int c;
+        int x, y;
+        int cl, cu;
         for (y = 0; y < subrows; y++) {
+            int cellRow = y * subcols;
+            c = -1;
             for (x = 0; x < subcols; x++) {
-                c = getTileCell(x, y); // cell
-                cl = getTileCell(x - 1, y); // left cell
-                cu = getTileCell(x, y - 1); // up cell
+                cl = c; // left cell
+                c = tileCells[cellRow + x]; // cell
+                cu = y > 0 ? tileCells[cellRow - subcols + x] : -1; // up cell
 
-                if (c != null) {
+                if (c != -1) {
                     // inside map
-                    if ((cl != null && !Objects.equals(c.group, cl.group)) || // at vertical boundary
-                            (cu != null && !Objects.equals(c.group, cu.group)) || // at horizontal boundary
-                            (cu == null && !c.connect[UP])) { // at top boundary
-                        setTile(x, y, '.');
+                    int g = cellGroups[c];
+                    if ((cl != -1 && g != cellGroups[cl]) || // at vertical boundary
+                            (cu != -1 && g != cellGroups[cu]) || // at horizontal boundary
+                            (cu == -1 && !isConnected(c, UP))) { // at top boundary
+                        setPath(x, y);
                     }
                 } else {
                     // outside map
-                    if ((cl != null && (!cl.connect[RIGHT] || getTile(x - 1, y) == '.')) || // at right boundary
-                            (cu != null && (!cu.connect[DOWN] || getTile(x, y - 1) == '.'))) { // at bottom boundary
-                        setTile(x, y, '.');
+                    if ((cl != -1 && (!isConnected(cl, RIGHT) || isPath(x - 1, y))) || // at right boundary
+                            (cu != -1 && (!isConnected(cu, DOWN) || isPath(x, y - 1)))) { // at bottom boundary
+                        setPath(x, y);
                     }
                 }
 
                 // at corner connecting two paths
-                if (getTile(x - 1, y) == '.' && getTile(x, y - 1) == '.' && getTile(x - 1, y - 1) == '_') {
-                    setTile(x, y, '.');
+                if (x > 0 && y > 0 && isPath(x - 1, y) && isPath(x, y - 1) && !isPath(x - 1, y - 1)) {
+                    setPath(x, y);
                 }
             }
         }
 
         // extend tunnels (MODIFIED)
-        c = cells[cols - 1];
-        while (c != null){
-            if (c.next[DOWN] == null){
+        c = cols - 1;
+        while (c != -1){
+            if (next(c, DOWN) == -1){
                 break;
             }
-            c = cells[c.next[DOWN]];
-            if (c.topTunnel) {
-                y = c.final_y + 1;
-                setTile(subcols - 1, y, '.');
-                setTile(subcols - 2, y, '.');
+            c = next(c, DOWN);
+            if (hasFlag(c, TOP_TUNNEL)) {
+                y = finalY[c] + 1;
+                setPath(subcols - 1, y);
+                setPath(subcols - 2, y);
             }
         }
 
-        // fill in walls
-        for (y = 0; y < subrows; y++) {
-            for (x = 0; x < subcols; x++) {
-                // any blank tile that shares a vertex with a path tile should be a wall tile
-                if (getTile(x, y) != '.' && (getTile(x - 1, y) == '.' || getTile(x, y - 1) == '.' || getTile(x + 1, y) == '.'
-                        || getTile(x, y + 1) == '.' || getTile(x - 1, y - 1) == '.' || getTile(x + 1, y - 1) == '.'
-                        || getTile(x + 1, y + 1) == '.' || getTile(x - 1, y + 1) == '.')) {
-                    setTile(x, y, '|');
-                }
-            }
-        }
+        fillWalls();
 
         // create the ghost door
-        setTile(2,12,'-');
+        setTile(2, config.doorTileRow, '-');
 
         x = subcols - 2;
-        Map<String, Integer> range = null;
-        try{
-            range = getTopEnergizerRange();
-        }
-        catch (Exception ex){
-            System.out.println("Exception occurred during getTopEnergizerRange()");
-        }
-        if (range != null) {
-            y = getRandomInt(range.get("miny"), range.get("maxy"));
-            setTile(x, y, 'o');
-        }
-
-        range = null;
-        try{
-            range = getBotEnergizerRange();
-        }
-        catch (Exception ex){
-            System.out.println("Exception occurred during getBotEnergizerRange()");
-        }
-        if (range != null) {
-            y = getRandomInt(range.get("miny"), range.get("maxy"));
-            setTile(x, y, 'o');
-        }
+        long range = getTopEnergizerRange();
+        setTile(x, getRandomInt(rangeMin(range), rangeMax(range)), 'o');
+        range = getBotEnergizerRange();
+        setTile(x, getRandomInt(rangeMin(range), rangeMax(range)), 'o');
 
         x = subcols - 1;
 
@@ -1121,7 +1809,7 @@ public class TetrisGridGenerator {
         }
 
         // erase pellets on starting position
-        setTile(1, subrows - 8, ' ');
+        setTile(1, config.startTileRow, ' ');
 
         // erase pellets around the ghost house
         int j;
@@ -1130,7 +1818,7 @@ public class TetrisGridGenerator {
             // erase pellets from bottom of the ghost house proceeding down until
             // reaching a pellet tile that isn't surrounded by walls
             // on the left and right
-            y = subrows - 14;
+            y = config.ghostBottomTileRow;
             setTile(i, y, ' ');
             j = 1;
             while (getTile(i, y + j) == '.' &&
@@ -1143,7 +1831,7 @@ public class TetrisGridGenerator {
             // erase pellets from top of the ghost house proceeding up until
             // reaching a pellet tile that isn't surrounded by walls
             // on the left and right
-            y = subrows - 20;
+            y = config.ghostTopTileRow;
             setTile(i, y, ' ');
             j = 1;
             while (getTile(i, y - j) == '.' &&
@@ -1161,7 +1849,7 @@ public class TetrisGridGenerator {
             // reaching a pellet tile that isn't surrounded by walls
             // on the top and bottom.
             x = 6;
-            y = subrows - 14 - i;
+            y = config.ghostBottomTileRow - i;
             setTile(x, y, ' ');
             j = 1;
             while (getTile(x + j, y) == '.' &&
@@ -1171,58 +1859,59 @@ public class TetrisGridGenerator {
                 j++;
             }
         }
-
-        // return a tile string (3 empty lines on top and 2 on bottom)
-
-        return "____________________________" +
-                "____________________________" +
-                "____________________________" +
-                new String(tiles) +
-                "____________________________" +
-                "____________________________";
     }
 
     // Method to erase pellets in the tunnels
-    private static void eraseUntilIntersection(int x, int y) {
-        List<Map<String, Integer>> adj;
+    private void eraseUntilIntersection(int x, int y) {
         while (true) {
-            adj = new ArrayList<>();
+            // follow the path while it has a single pellet next to it
+            int adj = 0;
+            int nx = x, ny = y;
             if (getTile(x - 1, y) == '.') {
-                Map<String, Integer> point = new HashMap<>();
-                point.put("x", x - 1);
-                point.put("y", y);
-                adj.add(point);
+                adj++;
+                nx = x - 1;
+                ny = y;
             }
             if (getTile(x + 1, y) == '.') {
-                Map<String, Integer> point = new HashMap<>();
-                point.put("x", x + 1);
-                point.put("y", y);
-                adj.add(point);
+                adj++;
+                nx = x + 1;
+                ny = y;
             }
             if (getTile(x, y - 1) == '.') {
-                Map<String, Integer> point = new HashMap<>();
-                point.put("x", x);
-                point.put("y", y - 1);
-                adj.add(point);
+                adj++;
+                nx = x;
+                ny = y - 1;
             }
             if (getTile(x, y + 1) == '.') {
-                Map<String, Integer> point = new HashMap<>();
-                point.put("x", x);
-                point.put("y", y + 1);
-                adj.add(point);
-            }
-            if (adj.size() == 1) {
-                setTile(x, y, ' ');
-                x = adj.get(0).get("x");
-                y = adj.get(0).get("y");
-            } else {
+                adj++;
+                nx = x;
+                ny = y + 1;
+            }
+            if (adj != 1) {
                 break;
             }
+            setTile(x, y, ' ');
+            x = nx;
+            y = ny;
         }
     }
 
-    // Method to get the range of top energizers
-    private static Map<String, Integer> getTopEnergizerRange() {
+    // Energizer ranges are packed into a long, the first tile row in the high half and the last in the
+    // low half, so rendering doesn't allocate them
+    private static long range(int miny, int maxy) {
+        return (long) miny << 32 | maxy & 0xFFFFFFFFL;
+    }
+
+    private static int rangeMin(long range) {
+        return (int) (range >> 32);
+    }
+
+    private static int rangeMax(long range) {
+        return (int) range;
+    }
+
+    // Tile rows the top energizer may go in, miny <= maxy
+    private long getTopEnergizerRange() {
         int miny = 0;
         int maxy = subrows / 2;
         int x = subcols - 2;
@@ -1240,14 +1929,11 @@ public class TetrisGridGenerator {
                 break;
             }
         }
-        Map<String, Integer> range = new HashMap<>();
-        range.put("miny", miny);
-        range.put("maxy", maxy);
-        return range;
+        return range(miny, maxy);
     }
 
-    // Method to get the range of bottom energizers
-    private static Map<String, Integer> getBotEnergizerRange() {
+    // Tile rows the bottom energizer may go in, miny <= maxy
+    private long getBotEnergizerRange() {
         int miny = subrows / 2;
         int maxy = 0;
         int x = subcols - 2;
@@ -1265,48 +1951,123 @@ public class TetrisGridGenerator {
                 break;
             }
         }
-        Map<String, Integer> range = new HashMap<>();
-        range.put("miny", Math.min(miny, maxy));
-        range.put("maxy", Math.max(miny, maxy));
-        return range;
+        return range(Math.min(miny, maxy), Math.max(miny, maxy));
     }
 
 
-    private static void setTile(int x, int y, char v) {
+    // Rasterises the scaled cells into tileCells, a row span at a time. Cells are drawn in index order
+    // and clipped to the tile grid.
+    void fillTileCells() {
+        Arrays.fill(tileCells, -1);
+        for (int i = 0; i < rows * cols; i++) {
+            int x0 = Math.max(finalX[i], 0);
+            int x1 = Math.min(finalX[i] + finalW[i], subcols);
+            if (x0 >= x1) {
+                continue;
+            }
+            int y0 = Math.max(finalY[i] + 1, 0);
+            int y1 = Math.min(finalY[i] + 1 + finalH[i], subrows);
+            for (int y = y0; y < y1; y++) {
+                Arrays.fill(tileCells, x0 + y * subcols, x1 + y * subcols, i);
+            }
+        }
+    }
+
+    // Fills in the walls around the path layer and writes both layers to tiles, every row mirrored.
+    // Any blank tile that shares a vertex with a path tile is a wall tile, so the walls are the path
+    // layer dilated by one tile in every direction, minus the paths themselves.
+    private void fillWalls() {
+        int words = tileWords;
+        for (int y = 0; y < subrows; y++) {
+            int row = y * words;
+            for (int w = 0; w < words; w++) {
+                long p = pathTiles[row + w];
+                long near = p | p << 1 | p >>> 1; // column 0 borders its own mirror image, so p covers it
+                if (w > 0) {
+                    near |= pathTiles[row + w - 1] >>> 63;
+                }
+                if (w < words - 1) {
+                    near |= pathTiles[row + w + 1] << 63;
+                }
+                nearPathTiles[row + w] = near;
+            }
+        }
+        for (int y = 0; y < subrows; y++) {
+            int row = y * words;
+            for (int w = 0; w < words; w++) {
+                long near = nearPathTiles[row + w];
+                if (y > 0) {
+                    near |= nearPathTiles[row - words + w];
+                }
+                if (y < subrows - 1) {
+                    near |= nearPathTiles[row + words + w];
+                }
+                wallTiles[w] = near & ~pathTiles[row + w] & (w == words - 1 ? lastTileWordMask : -1L);
+            }
+            reverseTileRow(pathTiles, row, mirroredPath);
+            reverseTileRow(wallTiles, 0, mirroredWall);
+            writeTileRow(mirroredPath, mirroredWall, 0, y * fullcols);
+            writeTileRow(pathTiles, wallTiles, row, y * fullcols + midcols);
+        }
+    }
+
+    // Writes midcols bits of src starting at src[from] to dst in reverse order
+    private void reverseTileRow(long[] src, int from, long[] dst) {
+        int words = tileWords;
+        int shift = words * 64 - midcols;
+        for (int w = 0; w < words; w++) {
+            long r = Long.reverse(src[from + words - 1 - w]) >>> shift;
+            if (shift > 0 && w < words - 1) {
+                r |= Long.reverse(src[from + words - 2 - w]) << (64 - shift);
+            }
+            dst[w] = r;
+        }
+    }
+
+    // Tile of each path bit | wall bit << 1; a path tile is never a wall
+    private static final char[] LAYER_TILES = {'_', '.', '|', '.'};
+
+    private void writeTileRow(long[] path, long[] wall, int from, int at) {
+        for (int w = 0, h = 0; h < midcols; w++) {
+            long p = path[from + w];
+            long q = wall[w];
+            for (int end = Math.min(h + 64, midcols); h < end; h++, p >>>= 1, q >>>= 1) {
+                tiles[at + h] = LAYER_TILES[(int) (p & 1 | (q & 1) << 1)];
+            }
+        }
+    }
+
+    // Path layer by the coordinates of getTile(), where x = 0 and 1 are columns 1 and 0 mirrored
+    private boolean isPath(int x, int y) {
         if (x < 0 || x > subcols - 1 || y < 0 || y > subrows - 1) {
-            return;
+            return false;
         }
-        x -= 2;
-        tiles[midcols + x + y * fullcols] = v;
-        tiles[midcols - 1 - x + y * fullcols] = v;
+        int h = x >= 2 ? x - 2 : 1 - x;
+        return (pathTiles[y * tileWords + (h >>> 6)] & 1L << h) != 0;
     }
 
-    private static char getTile(int x, int y) {
+    private void setPath(int x, int y) {
         if (x < 0 || x > subcols - 1 || y < 0 || y > subrows - 1) {
-            return '\0'; // Return null character or any other appropriate default value
+            return;
         }
-        x -= 2;
-        return tiles[midcols + x + y * fullcols];
+        int h = x >= 2 ? x - 2 : 1 - x;
+        pathTiles[y * tileWords + (h >>> 6)] |= 1L << h;
     }
 
-    private static void setTileCell(int x, int y, Cell cell) {
+    private void setTile(int x, int y, char v) {
         if (x < 0 || x > subcols - 1 || y < 0 || y > subrows - 1) {
             return;
         }
         x -= 2;
-        if (x + y * subcols >= tileCells.length) {
-            tileCells[x + y * subcols] = cell;
-        }
+        tiles[midcols + x + y * fullcols] = v;
+        tiles[midcols - 1 - x + y * fullcols] = v;
     }
 
-    private static Cell getTileCell(int x, int y) {
+    private char getTile(int x, int y) {
         if (x < 0 || x > subcols - 1 || y < 0 || y > subrows - 1) {
-            return null;
+            return '\0'; // Return null character or any other appropriate default value
         }
         x -= 2;
-        if (x + y * subcols >= tileCells.length){
-            return tileCells[x + y * subcols];
-        }
-        return null;
+        return tiles[midcols + x + y * fullcols];
     }
 }
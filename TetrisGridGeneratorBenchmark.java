@@ -0,0 +1,223 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Micro-benchmarks for each stage of the generation pipeline and for the whole generate() loop.
+// Every benchmark reports throughput, average time and bytes allocated per operation, single threaded
+// and with one generator per thread, so regressions in speed or GC pressure show up between releases.
+// Grid sizes given as ROWSxCOLS run every benchmark once per size and add the time per cell, which shows
+// how each stage scales with the grid; without any, only the default 9x5 grid is measured.
+//
+// Usage: java TetrisGridGeneratorBenchmark [measureSeconds] [maxThreads] [benchmark...] [ROWSxCOLS...]
+// e.g.   java TetrisGridGeneratorBenchmark 2 1 attempt gen 9x5 19x11 39x21 63x63
+public class TetrisGridGeneratorBenchmark {
+
+    // Seeds cycle over a fixed set so every run measures the same mazes
+    static final long BASE_SEED = 0x5EED;
+    static final int SEED_COUNT = 1024;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // A benchmark brings a generator to the state its stage expects (untimed), then runs the stage (timed)
+    interface Benchmark {
+        void prepare(TetrisGridGenerator generator, long seed);
+
+        void run(TetrisGridGenerator generator, long seed);
+    }
+
+    static final Map<String, Benchmark> BENCHMARKS = new LinkedHashMap<>();
+
+    static {
+        BENCHMARKS.put("reset", stage(Stage.NONE, TetrisGridGenerator::reset));
+        BENCHMARKS.put("gen", stage(Stage.RESET, TetrisGridGenerator::gen));
+        BENCHMARKS.put("isDesirable", stage(Stage.GEN, TetrisGridGenerator::isDesirable));
+        BENCHMARKS.put("setUpScaleCoords", stage(Stage.DESIRABLE, TetrisGridGenerator::setUpScaleCoords));
+        BENCHMARKS.put("joinWalls", stage(Stage.SCALED, TetrisGridGenerator::joinWalls));
+        BENCHMARKS.put("createTunnels", stage(Stage.JOINED, TetrisGridGenerator::createTunnels));
+        BENCHMARKS.put("fillTileCells", stage(Stage.TUNNELLED, TetrisGridGenerator::fillTileCells));
+        BENCHMARKS.put("renderTiles", stage(Stage.TUNNELLED, TetrisGridGenerator::renderTiles));
+        BENCHMARKS.put("getTiles", stage(Stage.TUNNELLED, TetrisGridGenerator::getTiles));
+        // one pass of the retry loop, successful or not, so it stays cheap to measure on large grids
+        BENCHMARKS.put("attempt", new Benchmark() {
+            @Override
+            public void prepare(TetrisGridGenerator generator, long seed) {
+                generator.setSeed(seed);
+            }
+
+            @Override
+            public void run(TetrisGridGenerator generator, long seed) {
+                generator.reset();
+                if (generator.gen()) {
+                    generator.isDesirable();
+                }
+            }
+        });
+        BENCHMARKS.put("generate", new Benchmark() {
+            @Override
+            public void prepare(TetrisGridGenerator generator, long seed) {
+                generator.setSeed(seed);
+            }
+
+            @Override
+            public void run(TetrisGridGenerator generator, long seed) {
+                generator.generate();
+            }
+        });
+    }
+
+    // How far through the pipeline a benchmark's stage starts
+    enum Stage {
+        NONE, RESET, GEN, DESIRABLE, SCALED, JOINED, TUNNELLED
+    }
+
+    interface StageCall {
+        void call(TetrisGridGenerator generator);
+    }
+
+    static Benchmark stage(Stage from, StageCall call) {
+        return new Benchmark() {
+            @Override
+            public void prepare(TetrisGridGenerator generator, long seed) {
+                advance(generator, seed, from);
+            }
+
+            @Override
+            public void run(TetrisGridGenerator generator, long seed) {
+                call.call(generator);
+            }
+        };
+    }
+
+    // Replays the attempts of generate() for the seed until one gets through to the requested stage
+    static void advance(TetrisGridGenerator generator, long seed, Stage to) {
+        if (to == Stage.NONE) {
+            return;
+        }
+        for (int attempt = 0; ; attempt++) {
+            generator.setSeed(MazeRandom.derive(seed, attempt));
+            generator.reset();
+            if (to == Stage.RESET) {
+                return;
+            }
+            if (!generator.gen()) {
+                continue;
+            }
+            if (to == Stage.GEN) {
+                return;
+            }
+            if (!generator.isDesirable()) {
+                continue;
+            }
+            if (to == Stage.DESIRABLE) {
+                return;
+            }
+            generator.setUpScaleCoords();
+            if (to == Stage.SCALED) {
+                return;
+            }
+            generator.joinWalls();
+            if (to == Stage.JOINED) {
+                return;
+            }
+            if (generator.createTunnels()) {
+                return;
+            }
+        }
+    }
+
+    static class Result {
+        long ops;
+        long nanos;
+        long bytes;
+
+        void add(Result other) {
+            ops += other.ops;
+            nanos += other.nanos;
+            bytes += other.bytes;
+        }
+    }
+
+    // Runs the benchmark on the current thread for the given time, timing only run()
+    static Result measure(Benchmark benchmark, MazeConfig config, long durationNanos, int thread) {
+        TetrisGridGenerator generator = new TetrisGridGenerator(config, BASE_SEED);
+        Result result = new Result();
+        long threadId = Thread.currentThread().getId();
+        long end = System.nanoTime() + durationNanos;
+        int i = thread;
+        while (System.nanoTime() < end) {
+            long seed = BASE_SEED + (i++ % SEED_COUNT);
+            benchmark.prepare(generator, seed);
+            long bytes = THREADS.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            benchmark.run(generator, seed);
+            result.nanos += System.nanoTime() - start;
+            result.bytes += THREADS.getThreadAllocatedBytes(threadId) - bytes;
+            result.ops++;
+        }
+        return result;
+    }
+
+    static Result measure(Benchmark benchmark, MazeConfig config, long durationNanos, int threads,
+                          ExecutorService pool) throws Exception {
+        List<Future<Result>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(pool.submit(() -> measure(benchmark, config, durationNanos, thread * (SEED_COUNT / threads))));
+        }
+        Result total = new Result();
+        for (Future<Result> future : futures) {
+            total.add(future.get());
+        }
+        return total;
+    }
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Set<String> selected = new LinkedHashSet<>();
+        List<MazeConfig> sizes = new ArrayList<>();
+        for (String arg : Arrays.asList(args).subList(Math.min(2, args.length), args.length)) {
+            if (arg.matches("\\d+x\\d+")) {
+                sizes.add(MazeConfig.parse(arg));
+            } else {
+                selected.add(arg);
+            }
+        }
+        if (sizes.isEmpty()) {
+            sizes.add(MazeConfig.DEFAULT);
+        }
+        long durationNanos = (long) (seconds * 1e9);
+
+        List<Integer> threadCounts = new ArrayList<>();
+        threadCounts.add(1);
+        if (maxThreads > 1) {
+            threadCounts.add(maxThreads);
+        }
+
+        PrintStream out = System.out;
+        ExecutorService pool = Executors.newFixedThreadPool(maxThreads);
+        try {
+            out.printf("%-18s %7s %7s %14s %14s %12s %14s%n",
+                    "Benchmark", "Size", "Threads", "ops/s", "avg ns/op", "ns/cell", "alloc B/op");
+            for (Map.Entry<String, Benchmark> entry : BENCHMARKS.entrySet()) {
+                if (!selected.isEmpty() && !selected.contains(entry.getKey())) {
+                    continue;
+                }
+                for (MazeConfig config : sizes) {
+                    for (int threads : threadCounts) {
+                        // warm up with the same shape as the measurement
+                        measure(entry.getValue(), config, durationNanos, threads, pool);
+                        Result r = measure(entry.getValue(), config, durationNanos, threads, pool);
+                        double avgNanos = (double) r.nanos / r.ops;
+                        out.printf("%-18s %7s %7d %14.1f %14.1f %12.2f %14.1f%n", entry.getKey(), config, threads,
+                                threads * 1e9 / avgNanos, avgNanos, avgNanos / config.getCells(), (double) r.bytes / r.ops);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}